@@ -1,6 +1,21 @@
 package org.codeturnery.osgi.toolbox.manager;
 
+import java.io.File;
+import java.util.Arrays;
+
 abstract class AbstractBundleRegistry implements BundleRegistry {
+	@SuppressWarnings("null")
+	@Override
+	public RegistrationResult registerBundleDirectory(final File directory) throws RegistrationException {
+		final File[] jarFiles = directory.listFiles(file -> file.isFile() && file.getName().endsWith(".jar")); //$NON-NLS-1$
+		if (jarFiles == null) {
+			throw new RegistrationException("Can't list files in directory: " + directory.getAbsolutePath());
+		}
+		Arrays.sort(jarFiles);
+
+		return registerBundles(Arrays.asList(jarFiles));
+	}
+
 	@Override
 	public boolean isNotInstalled(final RegisteredBundle bundle) {
 		return !(bundle instanceof InstalledBundle);
@@ -0,0 +1,83 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The outcome of the stage change of a single bundle within a
+ * {@link BatchResult}.
+ *
+ * @param <T> The type of the new bundle instance.
+ */
+public class BatchEntry<T extends RegisteredBundle> {
+	private final RegisteredBundle bundle;
+	private final @Nullable T result;
+	private final @Nullable StageChangeException failure;
+	private final Duration latency;
+	private final int wave;
+
+	private BatchEntry(final RegisteredBundle bundle, final @Nullable T result,
+			final @Nullable StageChangeException failure, final Duration latency, final int wave) {
+		this.bundle = bundle;
+		this.result = result;
+		this.failure = failure;
+		this.latency = latency;
+		this.wave = wave;
+	}
+
+	static <T extends RegisteredBundle> BatchEntry<T> succeeded(final RegisteredBundle bundle, final T result,
+			final Duration latency, final int wave) {
+		return new BatchEntry<>(bundle, result, null, latency, wave);
+	}
+
+	static <T extends RegisteredBundle> BatchEntry<T> failed(final RegisteredBundle bundle,
+			final StageChangeException failure, final Duration latency, final int wave) {
+		return new BatchEntry<>(bundle, null, failure, latency, wave);
+	}
+
+	/**
+	 * @return The instance the stage change was requested for, which is expired
+	 *         if the stage change succeeded.
+	 */
+	public RegisteredBundle getBundle() {
+		return this.bundle;
+	}
+
+	/**
+	 * @return The new instance of the bundle, if the stage change succeeded.
+	 */
+	@SuppressWarnings("null")
+	public Optional<T> getResult() {
+		return Optional.ofNullable(this.result);
+	}
+
+	/**
+	 * @return The reason why the stage change failed, if it did.
+	 */
+	@SuppressWarnings("null")
+	public Optional<StageChangeException> getFailure() {
+		return Optional.ofNullable(this.failure);
+	}
+
+	public boolean isSucceeded() {
+		return this.result != null;
+	}
+
+	/**
+	 * @return The time the stage change of this bundle took, not including the
+	 *         time spent waiting for other bundles. Zero if the stage change was
+	 *         not attempted.
+	 */
+	public Duration getLatency() {
+		return this.latency;
+	}
+
+	/**
+	 * @return The zero based number of the wave the stage change was done in.
+	 */
+	public int getWave() {
+		return this.wave;
+	}
+}
@@ -0,0 +1,78 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * The outcome of changing the stage of multiple bundles at once, e.g. via
+ * {@link BundleRegistry#startAll(java.util.Collection)}.
+ * <p>
+ * Bundles are changed in waves. All bundles of a wave are changed
+ * concurrently, after all bundles of the previous waves were changed.
+ *
+ * @param <T> The type of the new bundle instances.
+ */
+public class BatchResult<T extends RegisteredBundle> {
+	private final List<BatchEntry<T>> entries;
+	private final int waveCount;
+
+	BatchResult(final List<BatchEntry<T>> entries, final int waveCount) {
+		this.entries = Checks.requireNonNull(Collections.unmodifiableList(entries));
+		this.waveCount = waveCount;
+	}
+
+	/**
+	 * @return The outcome for each given bundle, in the order the bundles were
+	 *         given.
+	 */
+	public List<BatchEntry<T>> getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * @return The new instances of the bundles whose stage was changed
+	 *         successfully, in the order the bundles were given.
+	 */
+	public List<T> getResults() {
+		final var results = new ArrayList<T>(this.entries.size());
+		for (final BatchEntry<T> entry : this.entries) {
+			entry.getResult().ifPresent(results::add);
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return The entries of the bundles whose stage could not be changed.
+	 */
+	public List<BatchEntry<T>> getFailures() {
+		final var failures = new ArrayList<BatchEntry<T>>();
+		for (final BatchEntry<T> entry : this.entries) {
+			if (!entry.isSucceeded()) {
+				failures.add(entry);
+			}
+		}
+
+		return failures;
+	}
+
+	public boolean hasFailures() {
+		for (final BatchEntry<T> entry : this.entries) {
+			if (!entry.isSucceeded()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The number of waves the stage changes were split into.
+	 */
+	public int getWaveCount() {
+		return this.waveCount;
+	}
+}
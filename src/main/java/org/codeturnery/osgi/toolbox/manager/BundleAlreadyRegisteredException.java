@@ -7,11 +7,21 @@ public class BundleAlreadyRegisteredException extends Exception {
 	private static final long serialVersionUID = -6165645102040527991L;
 	private final File unregisteredBundle;
 	private final RegisteredBundle registeredBundle;
+	private final boolean contentDuplicate;
 
 	BundleAlreadyRegisteredException(final File jarFile, final RegisteredBundle registeredBundle) {
 		super("A bundle was already registered using the given path.");
 		this.unregisteredBundle = jarFile;
 		this.registeredBundle = registeredBundle;
+		this.contentDuplicate = false;
+	}
+
+	BundleAlreadyRegisteredException(final File jarFile, final RegisteredBundle registeredBundle,
+			final String contentHash) {
+		super("A bundle with the same content (SHA-256 " + contentHash + ") was already registered.");
+		this.unregisteredBundle = jarFile;
+		this.registeredBundle = registeredBundle;
+		this.contentDuplicate = true;
 	}
 
 	public File getUnregisteredBundle() {
@@ -21,4 +31,13 @@ public class BundleAlreadyRegisteredException extends Exception {
 	public RegisteredBundle getRegisteredBundle() {
 		return this.registeredBundle;
 	}
+
+	/**
+	 * @return {@code true} if the already registered bundle was registered from a
+	 *         different path but its JAR file has the same content,
+	 *         {@code false} if it was registered from the same path.
+	 */
+	public boolean isContentDuplicate() {
+		return this.contentDuplicate;
+	}
 }
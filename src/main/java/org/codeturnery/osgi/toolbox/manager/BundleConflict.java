@@ -1,24 +1,54 @@
 package org.codeturnery.osgi.toolbox.manager;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import org.eclipse.jdt.annotation.Checks;
 import org.eclipse.jdt.annotation.Nullable;
 
 public class BundleConflict {
 	private final RegisteredBundle conflictingBundle;
-	private final Set<String> conflictingClasses;
+	/**
+	 * The conflicting class paths, grouped by the name of their package.
+	 */
+	private final Map<String, Set<String>> conflictingPackages;
 	private final boolean conflictingSymbolicName;
 
 	BundleConflict(final RegisteredBundle conflictingBundle, final Set<String> conflictingClasses,
 			final boolean symbolicNameConflict) {
+		this(conflictingBundle, groupByPackage(conflictingClasses), symbolicNameConflict);
+	}
+
+	BundleConflict(final RegisteredBundle conflictingBundle, final Map<String, Set<String>> conflictingPackages,
+			final boolean symbolicNameConflict) {
 		this.conflictingBundle = conflictingBundle;
 		this.conflictingSymbolicName = symbolicNameConflict;
-		this.conflictingClasses = conflictingClasses;
+		this.conflictingPackages = Checks.requireNonNull(Collections.unmodifiableMap(conflictingPackages));
 	}
 
+	/**
+	 * @return The paths of all conflicting classes, regardless of their package.
+	 */
 	public Set<String> getConflictingClasses() {
-		return this.conflictingClasses;
+		final var conflictingClasses = new HashSet<String>();
+		for (final Set<String> packageClasses : this.conflictingPackages.values()) {
+			conflictingClasses.addAll(packageClasses);
+		}
+
+		return conflictingClasses;
+	}
+
+	/**
+	 * @return The paths of the conflicting classes, mapped by the name of their
+	 *         package in path notation (e.g. <code>org/example</code>). Packages
+	 *         without conflicting classes are not contained.
+	 */
+	public Map<String, Set<String>> getConflictingPackages() {
+		return this.conflictingPackages;
 	}
 
 	public RegisteredBundle getConflictingBundle() {
@@ -28,7 +58,7 @@ public class BundleConflict {
 	public boolean isConflictingSymbolicName() {
 		return this.conflictingSymbolicName;
 	}
-	
+
 	@Override
 	public boolean equals(@Nullable Object obj) {
 		if (obj == null || !(obj instanceof BundleConflict)) {
@@ -38,14 +68,24 @@ public class BundleConflict {
 			return true;
 		}
 		final BundleConflict other = (BundleConflict) obj;
-		
+
 		return this.conflictingSymbolicName == other.conflictingSymbolicName
-				&& this.conflictingClasses.equals(other.conflictingClasses)
+				&& this.conflictingPackages.equals(other.conflictingPackages)
 				&& this.conflictingBundle.equals(other.conflictingBundle);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(this.conflictingClasses, this.conflictingBundle) + (this.conflictingSymbolicName ? 1 : 0);
+		return Objects.hash(this.conflictingPackages, this.conflictingBundle) + (this.conflictingSymbolicName ? 1 : 0);
+	}
+
+	private static Map<String, Set<String>> groupByPackage(final Set<String> conflictingClasses) {
+		final var conflictingPackages = new HashMap<String, Set<String>>();
+		for (final String conflictingClass : conflictingClasses) {
+			conflictingPackages.computeIfAbsent(ClassPackage.getPackageName(conflictingClass), name -> new HashSet<>())
+					.add(conflictingClass);
+		}
+
+		return conflictingPackages;
 	}
 }
@@ -0,0 +1,278 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * Hash indexes over the bundles of a registry, kept alongside its ordered list
+ * of bundles, so that bundles can be looked up without scanning the list.
+ * <p>
+ * All indexes refer to the {@link RegisteredOsgiBundle#getId() id} of a
+ * bundle, which does not change when the bundle switches its stage. Thus only
+ * the mapping from the id to the current instance must be updated on a stage
+ * change.
+ * <p>
+ * Not thread safe, the owning registry is responsible for synchronization.
+ */
+class BundleIndex {
+	private final Map<Long, RegisteredOsgiBundle> bundlesById = new HashMap<>();
+	/**
+	 * The position of each bundle in the ordered list of the registry.
+	 */
+	private final Map<Long, Integer> positionsById = new HashMap<>();
+	private final Map<URI, Long> idsByUri = new HashMap<>();
+	private final Map<String, Long> idsByContentHash = new HashMap<>();
+	/**
+	 * The ids of the bundles with a symbolic name, in the order the bundles were
+	 * added.
+	 */
+	private final Map<String, Set<Long>> idsBySymbolicName = new HashMap<>();
+	/**
+	 * Like {@link #idsBySymbolicName} but keyed by the
+	 * {@link RegisteredBundle#getSymbolicNameWithVersion() symbolic name with
+	 * version}.
+	 */
+	private final Map<String, Set<Long>> idsBySymbolicNameWithVersion = new HashMap<>();
+
+	/**
+	 * @param bundle   A bundle not yet contained in this index.
+	 * @param position The position of the bundle in the ordered list of the
+	 *                 registry.
+	 */
+	@SuppressWarnings("null")
+	void add(final RegisteredOsgiBundle bundle, final int position) {
+		final Long id = Long.valueOf(bundle.id);
+		this.bundlesById.put(id, bundle);
+		this.positionsById.put(id, Integer.valueOf(position));
+		this.idsByUri.put(bundle.uri, id);
+		this.idsByContentHash.put(bundle.contentHash, id);
+		this.idsBySymbolicName.computeIfAbsent(bundle.symbolicName, name -> new LinkedHashSet<>()).add(id);
+		this.idsBySymbolicNameWithVersion
+				.computeIfAbsent(getSymbolicNameWithVersion(bundle), name -> new LinkedHashSet<>()).add(id);
+	}
+
+	/**
+	 * Replaces the instance of a bundle after it changed its stage. Its position
+	 * stays the same.
+	 *
+	 * @param replacement The new instance of a bundle contained in this index.
+	 */
+	@SuppressWarnings("null")
+	void replace(final RegisteredOsgiBundle replacement) {
+		this.bundlesById.put(Long.valueOf(replacement.id), replacement);
+	}
+
+	/**
+	 * Maps the URI and content hash of the given {@code content} to the given
+	 * bundle before it is updated to it, so that no other bundle can be added
+	 * with either of them while the update is in progress.
+	 *
+	 * @param bundle  The current instance of a bundle contained in this index.
+	 * @param content The new JAR file of the bundle.
+	 * @return Another bundle already using the URI or content hash, in which
+	 *         case nothing was reserved.
+	 */
+	@SuppressWarnings("null")
+	Optional<RegisteredOsgiBundle> reserveContent(final RegisteredOsgiBundle bundle,
+			final RegisteredOsgiBundle content) {
+		final Long id = Long.valueOf(bundle.id);
+		if (this.idsByUri.containsKey(content.uri) && !id.equals(this.idsByUri.get(content.uri))) {
+			return getById(this.idsByUri.get(content.uri).longValue());
+		}
+		if (this.idsByContentHash.containsKey(content.contentHash)
+				&& !id.equals(this.idsByContentHash.get(content.contentHash))) {
+			return getById(this.idsByContentHash.get(content.contentHash).longValue());
+		}
+		this.idsByUri.put(content.uri, id);
+		this.idsByContentHash.put(content.contentHash, id);
+
+		return Optional.empty();
+	}
+
+	/**
+	 * Reverts {@link #reserveContent(RegisteredOsgiBundle, RegisteredOsgiBundle)}
+	 * if the bundle could not be updated.
+	 *
+	 * @param bundle  The current instance of a bundle contained in this index.
+	 * @param content The JAR file the bundle could not be updated to.
+	 */
+	void releaseContent(final RegisteredOsgiBundle bundle, final RegisteredOsgiBundle content) {
+		final Long id = Long.valueOf(bundle.id);
+		if (!content.uri.equals(bundle.uri)) {
+			this.idsByUri.remove(content.uri, id);
+		}
+		if (!content.contentHash.equals(bundle.contentHash)) {
+			this.idsByContentHash.remove(content.contentHash, id);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the URI and content hash of the given
+	 *         {@code content} are mapped to the given bundle.
+	 */
+	boolean isContentReserved(final RegisteredOsgiBundle bundle, final RegisteredOsgiBundle content) {
+		final Long id = Long.valueOf(bundle.id);
+		return id.equals(this.idsByUri.get(content.uri)) && id.equals(this.idsByContentHash.get(content.contentHash));
+	}
+
+	/**
+	 * Replaces the instance of a bundle after it was updated from another JAR
+	 * file. Its id and position stay the same, all other keys are updated.
+	 * <p>
+	 * The URI and content hash of the {@code replacement} must have been
+	 * {@link #reserveContent(RegisteredOsgiBundle, RegisteredOsgiBundle)
+	 * reserved} before.
+	 *
+	 * @param bundle      The current instance of a bundle contained in this
+	 *                    index.
+	 * @param replacement The updated instance of the bundle.
+	 */
+	@SuppressWarnings("null")
+	void replaceContent(final RegisteredOsgiBundle bundle, final RegisteredOsgiBundle replacement) {
+		final Long id = Long.valueOf(bundle.id);
+		this.bundlesById.put(id, replacement);
+		if (!bundle.uri.equals(replacement.uri)) {
+			this.idsByUri.remove(bundle.uri, id);
+		}
+		if (!bundle.contentHash.equals(replacement.contentHash)) {
+			this.idsByContentHash.remove(bundle.contentHash, id);
+		}
+		// keep the order of the bundles sharing the symbolic name if it did not change
+		if (!bundle.symbolicName.equals(replacement.symbolicName)) {
+			removeId(this.idsBySymbolicName, bundle.symbolicName, id);
+			this.idsBySymbolicName.computeIfAbsent(replacement.symbolicName, name -> new LinkedHashSet<>()).add(id);
+		}
+		final String symbolicNameWithVersion = getSymbolicNameWithVersion(replacement);
+		if (!getSymbolicNameWithVersion(bundle).equals(symbolicNameWithVersion)) {
+			removeId(this.idsBySymbolicNameWithVersion, getSymbolicNameWithVersion(bundle), id);
+			this.idsBySymbolicNameWithVersion.computeIfAbsent(symbolicNameWithVersion, name -> new LinkedHashSet<>())
+					.add(id);
+		}
+	}
+
+	/**
+	 * Removes the given bundle, which must already be removed from the ordered
+	 * list of the registry, and updates the positions of all bundles that
+	 * followed it.
+	 *
+	 * @param bundle  The bundle to remove.
+	 * @param bundles The ordered list of the registry after the removal.
+	 */
+	@SuppressWarnings("null")
+	void remove(final RegisteredOsgiBundle bundle, final List<RegisteredOsgiBundle> bundles) {
+		final Long id = Long.valueOf(bundle.id);
+		final int position = Checks.requireNonNull(this.positionsById.remove(id)).intValue();
+		this.bundlesById.remove(id);
+		this.idsByUri.remove(bundle.uri, id);
+		this.idsByContentHash.remove(bundle.contentHash, id);
+		removeId(this.idsBySymbolicName, bundle.symbolicName, id);
+		removeId(this.idsBySymbolicNameWithVersion, getSymbolicNameWithVersion(bundle), id);
+		for (int i = position; i < bundles.size(); i++) {
+			this.positionsById.put(Long.valueOf(bundles.get(i).id), Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * @return {@code true} if the given instance is the current instance of a
+	 *         bundle in this index, {@code false} if the bundle is unknown or
+	 *         the instance was replaced.
+	 */
+	boolean contains(final RegisteredOsgiBundle bundle) {
+		return this.bundlesById.get(Long.valueOf(bundle.id)) == bundle;
+	}
+
+	/**
+	 * @return The position of the given instance in the ordered list of the
+	 *         registry or a negative value if it is not the current instance of a
+	 *         bundle in this index.
+	 */
+	int getPosition(final RegisteredOsgiBundle bundle) {
+		if (!contains(bundle)) {
+			return -1;
+		}
+
+		return Checks.requireNonNull(this.positionsById.get(Long.valueOf(bundle.id))).intValue();
+	}
+
+	@SuppressWarnings("null")
+	Optional<RegisteredOsgiBundle> getById(final long id) {
+		return Optional.ofNullable(this.bundlesById.get(Long.valueOf(id)));
+	}
+
+	@SuppressWarnings("null")
+	Optional<RegisteredOsgiBundle> getByUri(final URI uri) {
+		if (!this.idsByUri.containsKey(uri)) {
+			return Optional.empty();
+		}
+
+		return getById(this.idsByUri.get(uri).longValue());
+	}
+
+	@SuppressWarnings("null")
+	Optional<RegisteredOsgiBundle> getByContentHash(final String contentHash) {
+		if (!this.idsByContentHash.containsKey(contentHash)) {
+			return Optional.empty();
+		}
+
+		return getById(this.idsByContentHash.get(contentHash).longValue());
+	}
+
+	/**
+	 * @return The current instances of all bundles with the given symbolic name,
+	 *         in the order they were added.
+	 */
+	List<RegisteredOsgiBundle> getBySymbolicName(final String symbolicName) {
+		return getByIds(this.idsBySymbolicName, symbolicName);
+	}
+
+	/**
+	 * @param symbolicNameWithVersion See
+	 *                                {@link #getSymbolicNameWithVersion(String, BundleVersion)}.
+	 * @return The current instances of all bundles with the given symbolic name
+	 *         and version, in the order they were added.
+	 */
+	List<RegisteredOsgiBundle> getBySymbolicNameWithVersion(final String symbolicNameWithVersion) {
+		return getByIds(this.idsBySymbolicNameWithVersion, symbolicNameWithVersion);
+	}
+
+	/**
+	 * @return The key used for the given symbolic name and version, in the same
+	 *         format as {@link RegisteredBundle#getSymbolicNameWithVersion()}.
+	 */
+	static String getSymbolicNameWithVersion(final String symbolicName, final BundleVersion version) {
+		return symbolicName + ':' + version.getMajor() + '.' + version.getMinor() + '.' + version.getPatch();
+	}
+
+	private static String getSymbolicNameWithVersion(final RegisteredOsgiBundle bundle) {
+		return getSymbolicNameWithVersion(bundle.symbolicName, bundle.version);
+	}
+
+	private List<RegisteredOsgiBundle> getByIds(final Map<String, Set<Long>> idsByKey, final String key) {
+		final var bundles = new ArrayList<RegisteredOsgiBundle>();
+		if (idsByKey.containsKey(key)) {
+			for (final Long id : Checks.requireNonNull(idsByKey.get(key))) {
+				bundles.add(Checks.requireNonNull(this.bundlesById.get(id)));
+			}
+		}
+
+		return bundles;
+	}
+
+	private static void removeId(final Map<String, Set<Long>> idsByKey, final String key, final Long id) {
+		if (idsByKey.containsKey(key)) {
+			final Set<Long> ids = Checks.requireNonNull(idsByKey.get(key));
+			ids.remove(id);
+			if (ids.isEmpty()) {
+				idsByKey.remove(key);
+			}
+		}
+	}
+}
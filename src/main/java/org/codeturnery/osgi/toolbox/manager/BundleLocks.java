@@ -0,0 +1,46 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks used to serialize the stage changes of each bundle.
+ * <p>
+ * A bundle is mapped to a lock via its {@link RegisteredBundle#getId() id},
+ * which is kept across stage changes, so that all instances of a bundle use the
+ * same lock. Bundles mapped to different locks can change their stage
+ * concurrently, while bundles sharing a lock are changed one after the other.
+ * As ids are assigned sequentially, consecutively registered bundles never
+ * share a lock unless there are more bundles than locks.
+ */
+class BundleLocks {
+	private final Lock[] stripes;
+	private final int mask;
+
+	/**
+	 * @param concurrency The expected number of threads changing stages
+	 *                    concurrently. The number of locks is the next power of
+	 *                    two of four times this value.
+	 */
+	BundleLocks(final int concurrency) {
+		final int size = Integer.highestOneBit(Math.max(1, concurrency) * 4 - 1) << 1;
+		this.stripes = new Lock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Acquires the lock of the given bundle, waiting until it is available.
+	 *
+	 * @param bundleId The id of the bundle to change.
+	 * @return The acquired lock, to be released after the stage change.
+	 */
+	Lock lock(final long bundleId) {
+		final Lock lock = this.stripes[(int) bundleId & this.mask];
+		lock.lock();
+
+		return lock;
+	}
+}
@@ -1,18 +1,26 @@
 package org.codeturnery.osgi.toolbox.manager;
 
 import java.io.File;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public interface BundleRegistry {
 	/**
 	 * Returns the {@link List} of non-expired bundles sorted by their
 	 * {@link RegisteredBundle#getIndex() indices}.
 	 * <p>
-	 * The content and positions in the returned {@link List} will automatically be
-	 * updated when bundles are added, removed or their index updated.
-	 * <p>
-	 * While the returned {@link List} is just a view of the registry's state and
-	 * not modifiable, its entries (the bundles) are the actual instances.
+	 * The returned {@link List} is the one of the current {@link #getSnapshot()
+	 * snapshot}. It is not modifiable and does not change when bundles are added,
+	 * removed or their index updated afterwards, so it can be read safely while
+	 * other threads modify the registry. Its entries (the bundles) are the actual
+	 * instances.
 	 * 
 	 * @return The set of currently registered bundles. Entries may not just be
 	 *         {@link Stage#REGISTERED} but {@link Stage#INSTALLED} or
@@ -20,6 +28,61 @@ public interface BundleRegistry {
 	 */
 	public List<RegisteredBundle> getBundles();
 
+	/**
+	 * The returned snapshot does not change and can be read safely while other
+	 * threads modify this registry, e.g. to report the state of the registry. In
+	 * addition to the {@link #getBundles() bundles} it carries the generation
+	 * they were published with.
+	 *
+	 * @return The most recently published state of this registry.
+	 */
+	public RegistrySnapshot getSnapshot();
+
+	/**
+	 * Blocks until this registry reached the given generation, e.g. to wait for
+	 * the next change after a {@link #getSnapshot() snapshot} was processed.
+	 *
+	 * @param generation The minimum {@link RegistrySnapshot#getGeneration()
+	 *                   generation} to wait for.
+	 * @param timeout    The maximum duration to wait.
+	 * @return The current snapshot, with the given generation or a later one.
+	 * @throws InterruptedException
+	 * @throws TimeoutException     if the generation was not reached within the
+	 *                              given {@code timeout}
+	 */
+	public RegistrySnapshot awaitGeneration(final long generation, final Duration timeout)
+			throws InterruptedException, TimeoutException;
+
+	/**
+	 * @param bundleId The {@link RegisteredBundle#getId() id} of a bundle.
+	 * @return The current instance of the bundle with the given id, if it is
+	 *         known to this registry.
+	 */
+	public Optional<RegisteredBundle> findBundle(final long bundleId);
+
+	/**
+	 * @param uri The absolute file URI of a JAR file.
+	 * @return The current instance of the bundle registered from the given
+	 *         {@code uri}, if any.
+	 */
+	public Optional<RegisteredBundle> findBundle(final URI uri);
+
+	/**
+	 * @param symbolicName
+	 * @return The current instances of all bundles with the given symbolic name,
+	 *         in the order they were registered. More than one bundle indicates a
+	 *         {@link BundleConflict#isConflictingSymbolicName() conflict}.
+	 */
+	public List<RegisteredBundle> findBundles(final String symbolicName);
+
+	/**
+	 * @param symbolicName
+	 * @param version
+	 * @return The current instances of all bundles with the given symbolic name
+	 *         and version, in the order they were registered.
+	 */
+	public List<RegisteredBundle> findBundles(final String symbolicName, final BundleVersion version);
+
 	/**
 	 * {@link Stage#REGISTERED registers} a new bundle from the given
 	 * {@code jarFile}.
@@ -34,21 +97,180 @@ public interface BundleRegistry {
 	public RegisteredBundle registerBundle(final File jarFile) throws RegistrationException;
 
 	/**
-	 * Creates a list of proxies for the services provided by all
-	 * {@link Stage#STARTED} bundles, that were exposed via the given interface.
+	 * {@link Stage#REGISTERED Registers} a new bundle for each of the given
+	 * {@code jarFiles}.
+	 * <p>
+	 * The JAR files are opened and scanned concurrently. Afterwards all bundles
+	 * that could be scanned successfully are added to the registry in a single
+	 * step, in the order of the given {@code jarFiles}. A file that can not be
+	 * registered does not prevent the registration of the other files.
+	 * <p>
+	 * The same rules as for {@link #registerBundle(File)} apply to each individual
+	 * file, including between the given files themselves.
+	 *
+	 * @param jarFiles
+	 * @return The registered {@link Stage#REGISTERED} bundles and the failures,
+	 *         each mapped to the corresponding file.
+	 */
+	public RegistrationResult registerBundles(final Collection<File> jarFiles);
+
+	/**
+	 * Like {@link #registerBundles(Collection)} for all <code>.jar</code> files
+	 * directly inside the given {@code directory}, sorted by their path.
+	 *
+	 * @param directory
+	 * @return The registered {@link Stage#REGISTERED} bundles and the failures,
+	 *         each mapped to the corresponding file.
+	 * @throws RegistrationException if the content of the given {@code directory}
+	 *                               could not be listed
+	 */
+	public RegistrationResult registerBundleDirectory(final File directory) throws RegistrationException;
+
+	/**
+	 * {@link RegisteredBundle#install() Installs} all given bundles and resolves
+	 * them together afterwards, so that their dependencies on each other are
+	 * determined in a single pass.
+	 * <p>
+	 * A bundle that can not be installed does not prevent the installation of
+	 * the other bundles.
+	 *
+	 * @param bundles The bundles to install.
+	 * @return The new instances of the installed bundles and the failures, for
+	 *         each given bundle in the given order.
+	 */
+	public BatchResult<InstalledBundle> installAll(final Collection<RegisteredBundle> bundles);
+
+	/**
+	 * {@link InstalledBundle#uninstall() Uninstalls} all given bundles and
+	 * {@link #refresh() refreshes} the framework once afterwards.
+	 * <p>
+	 * A bundle that can not be uninstalled does not prevent the uninstallation of
+	 * the other bundles.
+	 *
+	 * @param bundles The bundles to uninstall.
+	 * @return The new instances of the uninstalled bundles and the failures, for
+	 *         each given bundle in the given order.
+	 */
+	public BatchResult<RegisteredBundle> uninstallAll(final Collection<InstalledBundle> bundles);
+
+	/**
+	 * Releases the resources still held for bundles that were uninstalled since
+	 * the last refresh. Bundles using packages of them are rewired, which may
+	 * stop and restart them.
+	 * <p>
+	 * Refreshing once after uninstalling multiple bundles is cheaper than
+	 * refreshing after each of them.
+	 *
+	 * @return A future completed when the refresh finished.
+	 */
+	public CompletableFuture<Void> refresh();
+
+	/**
+	 * {@link InstalledBundle#start() Starts} all given bundles, ordered by their
+	 * dependencies on each other.
+	 * <p>
+	 * Bundles that do not depend on each other are started concurrently. A bundle
+	 * is only started after all bundles it depends on were started and is not
+	 * started at all if one of them failed to start. A bundle that can not be
+	 * started does not prevent the start of bundles not depending on it.
+	 *
+	 * @param bundles The bundles to start.
+	 * @return The new instances of the started bundles and the failures, for each
+	 *         given bundle in the given order.
+	 */
+	public BatchResult<StartedBundle> startAll(final Collection<InstalledBundle> bundles);
+
+	/**
+	 * Replaces a started bundle with another bundle providing the same services,
+	 * e.g. a newer version of it, without failing calls to these services.
+	 * <p>
+	 * The {@code replacement} is installed and started alongside the
+	 * {@code bundle}. Afterwards, all new calls to the services of the
+	 * {@code bundle} via {@link ServiceWrapper#callService(java.util.function.Consumer)}
+	 * are sent to the service of the same type provided by the
+	 * {@code replacement} instead. After the calls still running on the services
+	 * of the {@code bundle} finished, the {@code bundle} is stopped and
+	 * uninstalled, but stays registered.
+	 *
+	 * @param bundle       The bundle to replace.
+	 * @param replacement  The bundle to replace it with.
+	 * @param drainTimeout The maximum duration to wait for running calls to
+	 *                     finish.
+	 * @return The started replacement.
+	 * @throws SwapException if the replacement could not be started, in which
+	 *                       case the {@code bundle} is left untouched, or if the
+	 *                       running calls did not finish in time, in which case
+	 *                       the {@code bundle} is still started but receives no
+	 *                       new calls
+	 */
+	public StartedBundle swap(final StartedBundle bundle, final RegisteredBundle replacement,
+			final Duration drainTimeout) throws SwapException;
+
+	/**
+	 * @return A new transaction to change the stages of multiple bundles of this
+	 *         registry as a whole.
+	 */
+	public BundleTransaction beginTransaction();
+
+	/**
+	 * Returns the proxies for the services provided by all {@link Stage#STARTED}
+	 * bundles, that were exposed via the given interface.
 	 * <p>
 	 * The services are not exposed directly because references to the actual
 	 * services must be handled carefully for the garbage collector to be able to
 	 * clean them up.
+	 * <p>
+	 * The returned list is shared by all callers and not modifiable, copy it
+	 * before changing it. It does not change itself, but once services of the
+	 * given interface are registered or unregistered, further invocations return
+	 * a new list, containing the same proxy instances for the services that are
+	 * still registered.
 	 * 
 	 * @param <T>
 	 * @param type
-	 * @return A list of proxies that can be used to call the corresponding
-	 *         services.
+	 * @return An unmodifiable list of proxies that can be used to call the
+	 *         corresponding services.
 	 * @throws LoadServiceException
 	 */
 	public <T> List<? extends ServiceWrapper<T>> loadServices(final Class<T> type) throws LoadServiceException;
 
+	/**
+	 * Calls all services {@link #loadServices(Class) loaded} for the given
+	 * {@code type} concurrently, so that the total latency is the one of the
+	 * slowest service instead of the sum of all of them.
+	 * 
+	 * @param <T>      The type of the services.
+	 * @param <R>      The type of the value returned by each call.
+	 * @param type     The interface the services were exposed via.
+	 * @param function Receives the proxy of each service, which must not be used
+	 *                 after the function returned.
+	 * @param timeout  The maximum duration of each call. Calls not finished in
+	 *                 time are reported as failed but not interrupted.
+	 * @return The future outcome of each call, completed when all calls finished
+	 *         or timed out. Failed calls do not let the future fail but are
+	 *         reported within their {@link CallResult}.
+	 * @throws LoadServiceException if the services could not be looked up
+	 */
+	public <T, R> CompletableFuture<List<CallResult<R>>> callAll(final Class<T> type, final Function<T, R> function,
+			final Duration timeout) throws LoadServiceException;
+
+	/**
+	 * Like {@link #callAll(Class, Function, Duration)} but provides the outcome
+	 * of each call as soon as it is available.
+	 * 
+	 * @param <T>      The type of the services.
+	 * @param <R>      The type of the value returned by each call.
+	 * @param type     The interface the services were exposed via.
+	 * @param function Receives the proxy of each service, which must not be used
+	 *                 after the function returned.
+	 * @param timeout  The maximum duration of each call.
+	 * @return The outcome of each call in the order the calls finished. Consuming
+	 *         the stream blocks until the next call finished.
+	 * @throws LoadServiceException if the services could not be looked up
+	 */
+	public <T, R> Stream<CallResult<R>> streamAll(final Class<T> type, final Function<T, R> function,
+			final Duration timeout) throws LoadServiceException;
+
 	public boolean isNotInstalled(final RegisteredBundle bundle);
 
 	public boolean isInstalledButNotStarted(final RegisteredBundle bundle);
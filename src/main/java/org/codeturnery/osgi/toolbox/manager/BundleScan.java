@@ -0,0 +1,47 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.Map;
+import java.util.jar.Manifest;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * The information read from the JAR file of a bundle by a {@link BundleScanner}.
+ */
+class BundleScan {
+	private final Manifest manifest;
+	private final ClassEntryTable classEntries;
+	private final String contentHash;
+
+	/**
+	 * @param manifest
+	 * @param classEntries Converted into a {@link ClassEntryTable} if it isn't one
+	 *                     already.
+	 * @param contentHash
+	 */
+	BundleScan(final Manifest manifest, final Map<String, ClassEntry> classEntries, final String contentHash) {
+		this.manifest = manifest;
+		this.classEntries = classEntries instanceof ClassEntryTable
+				? (ClassEntryTable) classEntries
+				: ClassEntryTable.of(Checks.requireNonNull(classEntries.values()));
+		this.contentHash = contentHash;
+	}
+
+	Manifest getManifest() {
+		return this.manifest;
+	}
+
+	/**
+	 * @return The class files in the JAR file, mapped by their path.
+	 */
+	ClassEntryTable getClassEntries() {
+		return this.classEntries;
+	}
+
+	/**
+	 * @return The hex encoded SHA-256 hash of the whole JAR file.
+	 */
+	String getContentHash() {
+		return this.contentHash;
+	}
+}
@@ -0,0 +1,113 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * Reads the manifest and the class entries from the JAR file of a bundle when
+ * it is {@link Stage#REGISTERED registered}.
+ * <p>
+ * Implementations are provided via the static methods of this class and can be
+ * passed into the constructor of the {@link OsgiBundleRegistry}. They must be
+ * safe to be used by multiple threads at once.
+ */
+public abstract class BundleScanner implements Flushable {
+
+	private static final String HASH_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	/**
+	 * The maximum number of bytes mapped into memory at once to hash a file.
+	 */
+	private static final long HASH_CHUNK_SIZE = 64L * 1024 * 1024;
+
+	BundleScanner() {
+		// restrict implementations to this package
+	}
+
+	/**
+	 * @return A scanner that opens the JAR file as verified
+	 *         {@link java.util.jar.JarFile} and enumerates all of its entries.
+	 */
+	public static BundleScanner jarFile() {
+		return JarFileScanner.INSTANCE;
+	}
+
+	/**
+	 * @return A scanner that maps the JAR file into memory and reads the class
+	 *         entries directly from the ZIP central directory. Only the manifest
+	 *         is decompressed. The JAR signature is <strong>not</strong>
+	 *         verified.
+	 */
+	public static BundleScanner centralDirectory() {
+		return CentralDirectoryScanner.INSTANCE;
+	}
+
+	/**
+	 * Keeps the results of the given {@code delegate} in the given
+	 * {@code indexFile}, so that unchanged JAR files do not need to be scanned
+	 * again, even after a restart of the application.
+	 * <p>
+	 * A JAR file is considered unchanged as long as its absolute path, size and
+	 * last modification time did not change. The index file is written when the
+	 * {@link OsgiBundleRegistry} using the scanner is closed or when
+	 * {@link #flush()} is invoked.
+	 * 
+	 * @param indexFile The file to read the index from and write it to. It does
+	 *                  not need to exist yet.
+	 * @param delegate  The scanner to use for JAR files that are not in the
+	 *                  index or changed since they were indexed.
+	 * @return A scanner backed by the given {@code indexFile}.
+	 */
+	public static BundleScanner indexed(final Path indexFile, final BundleScanner delegate) {
+		return new IndexedBundleScanner(indexFile, delegate);
+	}
+
+	/**
+	 * Persists state kept by this scanner, if any. Does nothing by default.
+	 */
+	@Override
+	public void flush() throws IOException {
+		// nothing to persist by default
+	}
+
+	/**
+	 * @param jarFile The readable JAR file of the bundle.
+	 * @return The manifest, the class entries and the content hash of the given
+	 *         {@code jarFile}.
+	 * @throws IOException              if the file could not be read or is not
+	 *                                  a valid JAR file
+	 * @throws BundleViolationException if the file does not contain a manifest
+	 */
+	abstract BundleScan scan(final File jarFile) throws IOException, BundleViolationException;
+
+	/**
+	 * Streams the whole content of the given {@code channel} through a SHA-256
+	 * digest by mapping it into memory chunk by chunk.
+	 * 
+	 * @param channel
+	 * @return The hex encoded SHA-256 hash of the content.
+	 * @throws IOException
+	 */
+	static String hash(final FileChannel channel) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (final NoSuchAlgorithmException exception) {
+			throw new IllegalStateException(exception);
+		}
+		final long size = channel.size();
+		for (long position = 0; position < size; position += HASH_CHUNK_SIZE) {
+			digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(HASH_CHUNK_SIZE, size - position)));
+		}
+
+		return Checks.requireNonNull(HexFormat.of().formatHex(digest.digest()));
+	}
+}
@@ -0,0 +1,60 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Changes the stages of multiple bundles as a whole: either all changes are
+ * applied or, if one of them fails, the bundles changed so far are moved back
+ * to the stage they were in before.
+ * <p>
+ * Each change moves one bundle to a target stage. The changes are applied in
+ * phases: first all bundles to move down are stopped, uninstalled or
+ * unregistered, then all bundles to move up are registered, installed and
+ * started. The bundles of each phase are changed concurrently.
+ * <p>
+ * Created via {@link BundleRegistry#beginTransaction()}. Not thread safe.
+ */
+public interface BundleTransaction {
+	/**
+	 * Registers the given JAR file and moves the resulting bundle to the given
+	 * stage.
+	 *
+	 * @param jarFile     The JAR file of the bundle.
+	 * @param targetStage {@link Stage#REGISTERED}, {@link Stage#INSTALLED} or
+	 *                    {@link Stage#STARTED}.
+	 * @return This transaction.
+	 * @throws IllegalArgumentException if the target stage is
+	 *                                  {@link Stage#UNREGISTERED}
+	 */
+	public BundleTransaction register(final File jarFile, final Stage targetStage) throws IllegalArgumentException;
+
+	/**
+	 * Moves the given bundle up or down to the given stage.
+	 *
+	 * @param bundle      A bundle of the registry that created this transaction.
+	 *                    It will be expired after the transaction was committed
+	 *                    if its stage was changed, even if the transaction was
+	 *                    rolled back.
+	 * @param targetStage {@link Stage#REGISTERED}, {@link Stage#INSTALLED} or
+	 *                    {@link Stage#STARTED}.
+	 * @return This transaction.
+	 * @throws IllegalArgumentException if the target stage is
+	 *                                  {@link Stage#UNREGISTERED} or the bundle
+	 *                                  is not known in the registry
+	 */
+	public BundleTransaction change(final RegisteredBundle bundle, final Stage targetStage)
+			throws IllegalArgumentException;
+
+	/**
+	 * Applies all changes of this transaction. Can only be invoked once.
+	 *
+	 * @return The new instance of each bundle, in the order of the changes.
+	 * @throws TransactionException  if a change failed, after all bundles were
+	 *                               moved back to their previous stage as far as
+	 *                               possible. Bundles registered by this
+	 *                               transaction are unregistered again.
+	 * @throws IllegalStateException if the transaction was already committed
+	 */
+	public List<RegisteredBundle> commit() throws TransactionException, IllegalStateException;
+}
@@ -0,0 +1,76 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The outcome of calling a single service within
+ * {@link BundleRegistry#callAll(Class, java.util.function.Function, Duration)}.
+ *
+ * @param <R> The type of the value returned by the call.
+ */
+public class CallResult<R> {
+	private final ServiceWrapper<?> service;
+	private final @Nullable R result;
+	private final @Nullable Throwable failure;
+	private final Duration latency;
+
+	private CallResult(final ServiceWrapper<?> service, final @Nullable R result, final @Nullable Throwable failure,
+			final Duration latency) {
+		this.service = service;
+		this.result = result;
+		this.failure = failure;
+		this.latency = latency;
+	}
+
+	static <R> CallResult<R> succeeded(final ServiceWrapper<?> service, final @Nullable R result,
+			final Duration latency) {
+		return new CallResult<>(service, result, null, latency);
+	}
+
+	static <R> CallResult<R> failed(final ServiceWrapper<?> service, final Throwable failure,
+			final Duration latency) {
+		return new CallResult<>(service, null, failure, latency);
+	}
+
+	/**
+	 * @return The wrapper of the service that was called.
+	 */
+	public ServiceWrapper<?> getService() {
+		return this.service;
+	}
+
+	/**
+	 * @return The value returned by the call, if it succeeded and the value is
+	 *         not {@code null}.
+	 */
+	@SuppressWarnings("null")
+	public Optional<R> getResult() {
+		return Optional.ofNullable(this.result);
+	}
+
+	/**
+	 * @return The reason why the call failed, if it did. A
+	 *         {@link java.util.concurrent.TimeoutException} if the call did not
+	 *         finish in time, a {@link LoadServiceException} if the service could
+	 *         not be loaded or whatever the call threw otherwise.
+	 */
+	@SuppressWarnings("null")
+	public Optional<Throwable> getFailure() {
+		return Optional.ofNullable(this.failure);
+	}
+
+	public boolean isSucceeded() {
+		return this.failure == null;
+	}
+
+	/**
+	 * @return The time the call took, up to the timeout if it did not finish in
+	 *         time.
+	 */
+	public Duration getLatency() {
+		return this.latency;
+	}
+}
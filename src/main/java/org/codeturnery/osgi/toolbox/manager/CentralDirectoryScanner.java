@@ -0,0 +1,303 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Scans the JAR file by mapping it into memory and reading the end of central
+ * directory record and the central directory headers of the ZIP format
+ * directly.
+ * <p>
+ * The names, CRC-32 checksums and sizes of the class files are taken from the
+ * central directory headers, without inflating any content or creating
+ * {@link java.util.jar.JarEntry} instances. Only the manifest is read from its
+ * local file header and decompressed. The content hash is calculated from the
+ * same memory mapping.
+ * <p>
+ * Entry names are always decoded as UTF-8, like {@link JarFile} does.
+ *
+ * @see <a href="https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT">ZIP
+ *      File Format Specification</a>
+ */
+class CentralDirectoryScanner extends BundleScanner {
+
+	static final CentralDirectoryScanner INSTANCE = new CentralDirectoryScanner();
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final byte[] CLASS_SUFFIX = Checks.requireNonNull(".class".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+
+	@SuppressWarnings("null")
+	@Override
+	BundleScan scan(final File jarFile) throws IOException, BundleViolationException {
+		try (final FileChannel channel = FileChannel.open(jarFile.toPath(), StandardOpenOption.READ)) {
+			final Directory directory = readDirectoryLocation(channel);
+			final ByteBuffer headers = map(channel, directory.position, directory.size);
+			final var classEntries = new HashMap<String, ClassEntry>();
+			int manifestHeader = -1;
+			int position = 0;
+			for (long i = 0; i < directory.entryCount; i++) {
+				if (headers.getInt(position) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+					throw new ZipException("Invalid central directory header in: " + jarFile.getAbsolutePath());
+				}
+				final int nameLength = getUnsignedShort(headers, position + 28);
+				final int extraLength = getUnsignedShort(headers, position + 30);
+				final int commentLength = getUnsignedShort(headers, position + 32);
+				final int nameStart = position + CENTRAL_DIRECTORY_HEADER_SIZE;
+				if (endsWith(headers, nameStart, nameLength, CLASS_SUFFIX)) {
+					final String className = getName(headers, nameStart, nameLength);
+					final long crc = getUnsignedInt(headers, position + 16);
+					final long size = getZip64Values(headers, position, nameLength, extraLength)[0];
+					final @Nullable ClassEntry previousClassEntry = classEntries.put(className,
+							new ClassEntry(className, crc, size));
+					if (previousClassEntry != null) {
+						throw new IllegalStateException(className);
+					}
+				} else if (JarFile.MANIFEST_NAME.equalsIgnoreCase(getName(headers, nameStart, nameLength))) {
+					manifestHeader = position;
+				}
+				position = nameStart + nameLength + extraLength + commentLength;
+			}
+
+			if (manifestHeader < 0) {
+				throw new BundleViolationException("Missing manifest in: " + jarFile.getAbsolutePath());
+			}
+
+			return new BundleScan(readManifest(channel, directory, headers, manifestHeader), classEntries,
+					hash(channel));
+		}
+	}
+
+	/**
+	 * Finds the end of central directory record (and the ZIP64 one if necessary)
+	 * to determine where the central directory headers are located.
+	 *
+	 * @param channel
+	 * @return The location of the central directory in the file.
+	 * @throws IOException
+	 */
+	private static Directory readDirectoryLocation(final FileChannel channel) throws IOException {
+		final long fileSize = channel.size();
+		final long tailSize = Math.min(fileSize,
+				ZIP64_LOCATOR_SIZE + END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+		final long tailPosition = fileSize - tailSize;
+		final ByteBuffer tail = map(channel, tailPosition, tailSize);
+
+		final int record = findEndOfCentralDirectory(tail);
+		long entryCount = getUnsignedShort(tail, record + 10);
+		long size = getUnsignedInt(tail, record + 12);
+		long offset = getUnsignedInt(tail, record + 16);
+		long recordPosition = tailPosition + record;
+		if (entryCount == ZIP64_MAGIC_COUNT || size == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+			final int locator = record - ZIP64_LOCATOR_SIZE;
+			if (locator < 0 || tail.getInt(locator) != ZIP64_LOCATOR_SIGNATURE) {
+				throw new ZipException("Missing ZIP64 end of central directory locator.");
+			}
+			recordPosition = tail.getLong(locator + 8);
+			final ByteBuffer zip64Record = map(channel, recordPosition, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+			if (zip64Record.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				throw new ZipException("Invalid ZIP64 end of central directory record.");
+			}
+			entryCount = zip64Record.getLong(32);
+			size = zip64Record.getLong(40);
+			offset = zip64Record.getLong(48);
+		}
+
+		// the archive may be prefixed with other data, shifting all offsets
+		final long position = recordPosition - size;
+		if (position < 0 || offset > position) {
+			throw new ZipException("Invalid central directory location.");
+		}
+
+		return new Directory(position, size, entryCount, position - offset);
+	}
+
+	private static int findEndOfCentralDirectory(final ByteBuffer tail) throws ZipException {
+		for (int i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+					&& i + END_OF_CENTRAL_DIRECTORY_SIZE + getUnsignedShort(tail, i + 20) == tail.limit()) {
+				return i;
+			}
+		}
+
+		throw new ZipException("Missing end of central directory record.");
+	}
+
+	private static Manifest readManifest(final FileChannel channel, final Directory directory,
+			final ByteBuffer headers, final int header) throws IOException {
+		final int method = getUnsignedShort(headers, header + 10);
+		final long[] zip64Values = getZip64Values(headers, header, getUnsignedShort(headers, header + 28),
+				getUnsignedShort(headers, header + 30));
+		final long size = zip64Values[0];
+		final long compressedSize = zip64Values[1];
+		final long localHeaderPosition = directory.shift + zip64Values[2];
+
+		final ByteBuffer localHeader = map(channel, localHeaderPosition, LOCAL_HEADER_SIZE);
+		if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local file header of the manifest.");
+		}
+		final long dataPosition = localHeaderPosition + LOCAL_HEADER_SIZE + getUnsignedShort(localHeader, 26)
+				+ getUnsignedShort(localHeader, 28);
+		final ByteBuffer data = map(channel, dataPosition, compressedSize);
+
+		final byte[] content = new byte[Math.toIntExact(size)];
+		switch (method) {
+		case METHOD_STORED:
+			data.get(content);
+			break;
+		case METHOD_DEFLATED:
+			final var inflater = new Inflater(true);
+			try {
+				inflater.setInput(data);
+				int inflated = 0;
+				while (inflated < content.length && !inflater.finished()) {
+					final int count = inflater.inflate(content, inflated, content.length - inflated);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new ZipException("Truncated manifest content.");
+					}
+					inflated += count;
+				}
+			} catch (final DataFormatException exception) {
+				throw new ZipException(exception.getMessage());
+			} finally {
+				inflater.end();
+			}
+			break;
+		default:
+			throw new ZipException("Unsupported compression method of the manifest: " + method);
+		}
+
+		return new Manifest(new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * Reads the uncompressed size, the compressed size and the local header offset
+	 * of a central directory header, taking the ZIP64 extra field into account if
+	 * present.
+	 *
+	 * @param headers
+	 * @param header      The position of the central directory header.
+	 * @param nameLength
+	 * @param extraLength
+	 * @return The uncompressed size, the compressed size and the local header
+	 *         offset in that order.
+	 */
+	private static long[] getZip64Values(final ByteBuffer headers, final int header, final int nameLength,
+			final int extraLength) {
+		final long[] values = { getUnsignedInt(headers, header + 24), getUnsignedInt(headers, header + 20),
+				getUnsignedInt(headers, header + 42) };
+		if (values[0] != ZIP64_MAGIC && values[1] != ZIP64_MAGIC && values[2] != ZIP64_MAGIC) {
+			return values;
+		}
+
+		int field = header + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength;
+		final int end = field + extraLength;
+		while (field + 4 <= end) {
+			final int id = getUnsignedShort(headers, field);
+			final int size = getUnsignedShort(headers, field + 2);
+			if (id == ZIP64_EXTRA_FIELD_ID) {
+				int value = field + 4;
+				for (int i = 0; i < values.length && value + 8 <= field + 4 + size; i++) {
+					if (values[i] == ZIP64_MAGIC) {
+						values[i] = headers.getLong(value);
+						value += 8;
+					}
+				}
+				break;
+			}
+			field += 4 + size;
+		}
+
+		return values;
+	}
+
+	private static boolean endsWith(final ByteBuffer buffer, final int start, final int length,
+			final byte[] suffix) {
+		if (length < suffix.length) {
+			return false;
+		}
+		final int suffixStart = start + length - suffix.length;
+		for (int i = 0; i < suffix.length; i++) {
+			if (buffer.get(suffixStart + i) != suffix[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static String getName(final ByteBuffer buffer, final int start, final int length) {
+		final byte[] name = new byte[length];
+		buffer.get(start, name);
+
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	private static int getUnsignedShort(final ByteBuffer buffer, final int index) {
+		return Short.toUnsignedInt(buffer.getShort(index));
+	}
+
+	private static long getUnsignedInt(final ByteBuffer buffer, final int index) {
+		return Integer.toUnsignedLong(buffer.getInt(index));
+	}
+
+	private static ByteBuffer map(final FileChannel channel, final long position, final long size)
+			throws IOException {
+		if (size > Integer.MAX_VALUE || position < 0 || position + size > channel.size()) {
+			throw new ZipException("Invalid ZIP structure location.");
+		}
+
+		return Checks.requireNonNull(
+				channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	/**
+	 * Location of the central directory headers in the file.
+	 */
+	private static class Directory {
+		private final long position;
+		private final long size;
+		private final long entryCount;
+		/**
+		 * The difference between the actual positions in the file and the offsets
+		 * stored in the archive.
+		 */
+		private final long shift;
+
+		Directory(final long position, final long size, final long entryCount, final long shift) {
+			this.position = position;
+			this.size = size;
+			this.entryCount = entryCount;
+			this.shift = shift;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.Objects;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A class file contained in the JAR file of a bundle.
+ * <p>
+ * Only the information needed to detect conflicts between bundles is kept,
+ * which is much less than a {@link java.util.jar.JarEntry} would hold.
+ */
+public class ClassEntry {
+	private final String name;
+	private final long crc;
+	private final long size;
+
+	ClassEntry(final String name, final long crc, final long size) {
+		this.name = name;
+		this.crc = crc;
+		this.size = size;
+	}
+
+	/**
+	 * @return The path of the class file inside the JAR file, e.g.
+	 *         <code>org/example/Book.class</code>.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return The CRC-32 checksum of the uncompressed content of the class file.
+	 */
+	public long getCrc() {
+		return this.crc;
+	}
+
+	/**
+	 * @return The uncompressed size of the class file in bytes.
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	@Override
+	public boolean equals(@Nullable Object obj) {
+		if (obj == null || !(obj instanceof ClassEntry)) {
+			return false;
+		}
+		final ClassEntry other = (ClassEntry) obj;
+
+		return this.crc == other.crc && this.size == other.size && this.name.equals(other.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.name, Long.valueOf(this.crc), Long.valueOf(this.size));
+	}
+
+	@Override
+	public String toString() {
+		return this.name + '@' + Long.toHexString(this.crc);
+	}
+}
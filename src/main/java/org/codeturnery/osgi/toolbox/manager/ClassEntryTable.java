@@ -0,0 +1,400 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Immutable, compact storage of the class entries of a bundle.
+ * <p>
+ * Instead of one {@link ClassEntry} and one map node per class, the class
+ * entries are grouped by package. The UTF-8 encoded name of each package is
+ * stored only once and the UTF-8 encoded simple names of the class files,
+ * without the common <code>.class</code> suffix, are concatenated in a single
+ * array. Packages are sorted by their unsigned bytes and so are the class
+ * entries within each package, which keeps the class entries of a package
+ * consecutive. The CRC checksums and sizes are kept in parallel {@code int}
+ * arrays. Lookups are done via binary search.
+ * <p>
+ * The {@link Map} interface is implemented as a read-only view, creating
+ * {@link ClassEntry} instances on access only. Internal callers should prefer
+ * the index based methods.
+ */
+class ClassEntryTable extends AbstractMap<String, ClassEntry> {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final String CLASS_SUFFIX = ".class"; //$NON-NLS-1$
+	private static final byte[] CLASS_SUFFIX_BYTES = Checks.requireNonNull(CLASS_SUFFIX.getBytes(StandardCharsets.UTF_8));
+
+	/**
+	 * The UTF-8 bytes of all package names in path notation, see
+	 * {@link ClassPackage#getPackageName(String)}.
+	 */
+	private final byte[] packageNames;
+	/**
+	 * The start of each package name in {@link #packageNames}, with one
+	 * additional entry marking the end of the last one.
+	 */
+	private final int[] packageOffsets;
+	/**
+	 * The position of the first class entry of each package, with one additional
+	 * entry marking the end of the last package.
+	 */
+	private final int[] packageStarts;
+	/**
+	 * The UTF-8 bytes of all simple class names, without the package and the
+	 * <code>.class</code> suffix.
+	 */
+	private final byte[] names;
+	/**
+	 * The start of each simple class name in {@link #names}, with one additional
+	 * entry marking the end of the last one.
+	 */
+	private final int[] offsets;
+	private final int[] crcs;
+	private final int[] sizes;
+
+	private @Nullable Set<Map.Entry<String, ClassEntry>> entrySet = null;
+
+	private ClassEntryTable(final byte[] packageNames, final int[] packageOffsets, final int[] packageStarts,
+			final byte[] names, final int[] offsets, final int[] crcs, final int[] sizes) {
+		this.packageNames = packageNames;
+		this.packageOffsets = packageOffsets;
+		this.packageStarts = packageStarts;
+		this.names = names;
+		this.offsets = offsets;
+		this.crcs = crcs;
+		this.sizes = sizes;
+	}
+
+	/**
+	 * @param classEntries The class entries to store, with unique names.
+	 * @return A table containing the given {@code classEntries}.
+	 * @throws IllegalArgumentException if the name of a class entry does not end
+	 *                                  with <code>.class</code> or starts with a
+	 *                                  slash
+	 * @throws ArithmeticException      if the size of a class file exceeds the
+	 *                                  range of an {@code int}
+	 */
+	@SuppressWarnings("null")
+	static ClassEntryTable of(final Collection<ClassEntry> classEntries)
+			throws IllegalArgumentException, ArithmeticException {
+		final int count = classEntries.size();
+		final ClassEntry[] entries = classEntries.toArray(new ClassEntry[count]);
+		// equal package names share the same array, so packages can be told apart
+		// by identity
+		final var encodedPackageNames = new HashMap<String, byte[]>();
+		final byte[][] encodedPackages = new byte[count][];
+		final byte[][] encodedNames = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			final String name = entries[i].getName();
+			if (!isClassPath(name)) {
+				throw new IllegalArgumentException("Not the path of a class file: " + name);
+			}
+			final int separator = name.lastIndexOf('/');
+			encodedPackages[i] = encodedPackageNames.computeIfAbsent(name.substring(0, Math.max(separator, 0)),
+					packageName -> packageName.getBytes(StandardCharsets.UTF_8));
+			encodedNames[i] = name.substring(separator + 1, name.length() - CLASS_SUFFIX.length())
+					.getBytes(StandardCharsets.UTF_8);
+		}
+		final Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order,
+				Comparator.comparing((final Integer i) -> encodedPackages[i.intValue()], Arrays::compareUnsigned)
+						.thenComparing((final Integer i) -> encodedNames[i.intValue()], Arrays::compareUnsigned));
+
+		int packageLength = 0;
+		for (final byte[] encodedPackageName : encodedPackageNames.values()) {
+			packageLength += encodedPackageName.length;
+		}
+		int length = 0;
+		for (final byte[] encodedName : encodedNames) {
+			length += encodedName.length;
+		}
+		final int packageCount = encodedPackageNames.size();
+		final byte[] packageNames = new byte[packageLength];
+		final int[] packageOffsets = new int[packageCount + 1];
+		final int[] packageStarts = new int[packageCount + 1];
+		final byte[] names = new byte[length];
+		final int[] offsets = new int[count + 1];
+		final int[] crcs = new int[count];
+		final int[] sizes = new int[count];
+		int packageIndex = 0;
+		int packageOffset = 0;
+		int offset = 0;
+		byte @Nullable [] previousPackage = null;
+		for (int i = 0; i < count; i++) {
+			final int index = order[i].intValue();
+			final byte[] encodedPackage = encodedPackages[index];
+			if (encodedPackage != previousPackage) {
+				System.arraycopy(encodedPackage, 0, packageNames, packageOffset, encodedPackage.length);
+				packageOffsets[packageIndex] = packageOffset;
+				packageStarts[packageIndex] = i;
+				packageOffset += encodedPackage.length;
+				packageIndex++;
+				previousPackage = encodedPackage;
+			}
+			final byte[] encodedName = encodedNames[index];
+			System.arraycopy(encodedName, 0, names, offset, encodedName.length);
+			offsets[i] = offset;
+			offset += encodedName.length;
+			crcs[i] = (int) entries[index].getCrc();
+			sizes[i] = Math.toIntExact(entries[index].getSize());
+		}
+		packageOffsets[packageCount] = packageOffset;
+		packageStarts[packageCount] = count;
+		offsets[count] = offset;
+
+		return new ClassEntryTable(packageNames, packageOffsets, packageStarts, names, offsets, crcs, sizes);
+	}
+
+	private static boolean isClassPath(final String name) {
+		return name.endsWith(CLASS_SUFFIX) && !name.startsWith("/"); //$NON-NLS-1$
+	}
+
+	@Override
+	public int size() {
+		return this.crcs.length;
+	}
+
+	int getPackageCount() {
+		return this.packageStarts.length - 1;
+	}
+
+	/**
+	 * @param packageIndex The position of a package in this table.
+	 * @return The name of the package in path notation, see
+	 *         {@link ClassPackage#getPackageName(String)}.
+	 */
+	String getPackageName(final int packageIndex) {
+		return new String(this.packageNames, this.packageOffsets[packageIndex],
+				this.packageOffsets[packageIndex + 1] - this.packageOffsets[packageIndex], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param packageIndex The position of a package in this table.
+	 * @return The position of the first class entry of the package.
+	 */
+	int getPackageStart(final int packageIndex) {
+		return this.packageStarts[packageIndex];
+	}
+
+	/**
+	 * @param packageIndex The position of a package in this table.
+	 * @return The position after the last class entry of the package.
+	 */
+	int getPackageEnd(final int packageIndex) {
+		return this.packageStarts[packageIndex + 1];
+	}
+
+	/**
+	 * @param index The position of a class entry in this table.
+	 * @return The position of the package containing the class entry.
+	 */
+	private int getPackageIndex(final int index) {
+		int low = 0;
+		int high = getPackageCount() - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (this.packageStarts[middle] <= index) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * @param index The position of a class entry in this table.
+	 * @return The path of the class file.
+	 */
+	String getName(final int index) {
+		final int packageIndex = getPackageIndex(index);
+		final int packageStart = this.packageOffsets[packageIndex];
+		final int packageLength = this.packageOffsets[packageIndex + 1] - packageStart;
+		final int nameStart = packageLength == 0 ? 0 : packageLength + 1;
+		final int nameLength = this.offsets[index + 1] - this.offsets[index];
+		final byte[] path = new byte[nameStart + nameLength + CLASS_SUFFIX_BYTES.length];
+		System.arraycopy(this.packageNames, packageStart, path, 0, packageLength);
+		if (packageLength > 0) {
+			path[packageLength] = '/';
+		}
+		System.arraycopy(this.names, this.offsets[index], path, nameStart, nameLength);
+		System.arraycopy(CLASS_SUFFIX_BYTES, 0, path, nameStart + nameLength, CLASS_SUFFIX_BYTES.length);
+
+		return new String(path, StandardCharsets.UTF_8);
+	}
+
+	long getCrc(final int index) {
+		return Integer.toUnsignedLong(this.crcs[index]);
+	}
+
+	long getSize(final int index) {
+		return this.sizes[index];
+	}
+
+	ClassEntry getClassEntry(final int index) {
+		return new ClassEntry(getName(index), getCrc(index), getSize(index));
+	}
+
+	/**
+	 * @param name The path of a class file.
+	 * @return The position of the class entry with the given name or a negative
+	 *         value if there is none.
+	 */
+	int indexOf(final String name) {
+		if (!isClassPath(name)) {
+			return -1;
+		}
+		final int separator = name.lastIndexOf('/');
+		final byte[] packageKey = Checks
+				.requireNonNull(name.substring(0, Math.max(separator, 0)).getBytes(StandardCharsets.UTF_8));
+		final int packageIndex = binarySearch(this.packageNames, this.packageOffsets, 0, getPackageCount(),
+				packageKey);
+		if (packageIndex < 0) {
+			return -1;
+		}
+		final byte[] key = Checks.requireNonNull(
+				name.substring(separator + 1, name.length() - CLASS_SUFFIX.length()).getBytes(StandardCharsets.UTF_8));
+
+		return binarySearch(this.names, this.offsets, getPackageStart(packageIndex), getPackageEnd(packageIndex),
+				key);
+	}
+
+	/**
+	 * @return The position of the given {@code key} within the given range of
+	 *         the sorted byte sequences or {@code -1} if it is not contained.
+	 */
+	private static int binarySearch(final byte[] bytes, final int[] offsets, final int from, final int to,
+			final byte[] key) {
+		int low = from;
+		int high = to - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int comparison = Arrays.compareUnsigned(bytes, offsets[middle], offsets[middle + 1], key, 0,
+					key.length);
+			if (comparison == 0) {
+				return middle;
+			}
+			if (comparison < 0) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares the names of two class entries of the same package, possibly of
+	 * different tables, in the order the entries are sorted in.
+	 */
+	int compareNames(final int index, final ClassEntryTable other, final int otherIndex) {
+		return Arrays.compareUnsigned(this.names, this.offsets[index], this.offsets[index + 1], other.names,
+				other.offsets[otherIndex], other.offsets[otherIndex + 1]);
+	}
+
+	/**
+	 * Feeds the UTF-8 bytes of the simple name of a class entry, without its
+	 * package, into the given digest.
+	 */
+	void updateDigest(final MessageDigest digest, final int index) {
+		digest.update(this.names, this.offsets[index], this.offsets[index + 1] - this.offsets[index]);
+	}
+
+	/**
+	 * @return The 64-bit FNV-1a hash over the UTF-8 bytes of the path of a class
+	 *         entry, without the <code>.class</code> suffix.
+	 */
+	long hashName(final int index) {
+		final int packageIndex = getPackageIndex(index);
+		long hash = FNV_OFFSET_BASIS;
+		if (this.packageOffsets[packageIndex] < this.packageOffsets[packageIndex + 1]) {
+			for (int i = this.packageOffsets[packageIndex]; i < this.packageOffsets[packageIndex + 1]; i++) {
+				hash ^= this.packageNames[i] & 0xff;
+				hash *= FNV_PRIME;
+			}
+			hash ^= '/';
+			hash *= FNV_PRIME;
+		}
+		for (int i = this.offsets[index]; i < this.offsets[index + 1]; i++) {
+			hash ^= this.names[i] & 0xff;
+			hash *= FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	@Override
+	public boolean containsKey(final @Nullable Object key) {
+		return key instanceof String && indexOf((String) key) >= 0;
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	public @Nullable ClassEntry get(final @Nullable Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		final int index = indexOf((String) key);
+
+		return index < 0 ? null : getClassEntry(index);
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	public Set<Map.Entry<String, ClassEntry>> entrySet() {
+		final @Nullable Set<Map.Entry<String, ClassEntry>> currentEntrySet = this.entrySet;
+		if (currentEntrySet != null) {
+			return currentEntrySet;
+		}
+		final Set<Map.Entry<String, ClassEntry>> newEntrySet = new AbstractSet<>() {
+			@Override
+			public Iterator<Map.Entry<String, ClassEntry>> iterator() {
+				return new Iterator<>() {
+					private int index = 0;
+
+					@Override
+					public boolean hasNext() {
+						return this.index < size();
+					}
+
+					@Override
+					public Map.Entry<String, ClassEntry> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						final ClassEntry classEntry = getClassEntry(this.index++);
+
+						return new AbstractMap.SimpleImmutableEntry<>(classEntry.getName(), classEntry);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ClassEntryTable.this.size();
+			}
+		};
+		this.entrySet = newEntrySet;
+
+		return newEntrySet;
+	}
+}
@@ -0,0 +1,158 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * The class entries of a bundle belonging to the same package, together with a
+ * digest over their names and CRC checksums.
+ * <p>
+ * If two bundles contain a package with the same digest, e.g. because both
+ * embed the same library, none of its classes can conflict and they don't need
+ * to be compared one by one. The digests of all packages of a bundle are in
+ * turn combined into a {@link #digest(Collection) root digest}.
+ */
+class ClassPackage {
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+	private final String name;
+	private final byte[] digest;
+	private final ClassEntryTable table;
+	/**
+	 * The position of the first class entry of this package in the
+	 * {@link #table}. The class entries of a package are consecutive and sorted
+	 * by name.
+	 */
+	private final int start;
+	/**
+	 * The position after the last class entry of this package in the
+	 * {@link #table}.
+	 */
+	private final int end;
+
+	private ClassPackage(final String name, final ClassEntryTable table, final int start, final int end) {
+		this.name = name;
+		this.table = table;
+		this.start = start;
+		this.end = end;
+		final MessageDigest messageDigest = createMessageDigest();
+		for (int index = start; index < end; index++) {
+			table.updateDigest(messageDigest, index);
+			messageDigest.update((byte) 0);
+			final long crc = table.getCrc(index);
+			messageDigest.update(new byte[] { (byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8),
+					(byte) crc });
+		}
+		this.digest = Checks.requireNonNull(messageDigest.digest());
+	}
+
+	/**
+	 * @param classEntries The class entries of a bundle.
+	 * @return The packages of the given class entries, mapped by their name.
+	 */
+	static Map<String, ClassPackage> of(final ClassEntryTable classEntries) {
+		final int packageCount = classEntries.getPackageCount();
+		final var packages = new HashMap<String, ClassPackage>(packageCount * 4 / 3 + 1);
+		for (int i = 0; i < packageCount; i++) {
+			final String packageName = classEntries.getPackageName(i);
+			packages.put(packageName, new ClassPackage(packageName, classEntries, classEntries.getPackageStart(i),
+					classEntries.getPackageEnd(i)));
+		}
+
+		return packages;
+	}
+
+	/**
+	 * Combines the digests of the given packages, so that two bundles defining
+	 * exactly the same classes have the same root digest.
+	 *
+	 * @param packages All packages of a bundle.
+	 * @return The root digest.
+	 */
+	static byte[] digest(final Collection<ClassPackage> packages) {
+		final ClassPackage[] sortedPackages = packages.toArray(new ClassPackage[0]);
+		Arrays.sort(sortedPackages, Comparator.comparing(ClassPackage::getName));
+		final MessageDigest messageDigest = createMessageDigest();
+		for (final ClassPackage classPackage : sortedPackages) {
+			messageDigest.update(classPackage.name.getBytes(StandardCharsets.UTF_8));
+			messageDigest.update((byte) 0);
+			messageDigest.update(classPackage.digest);
+		}
+
+		return Checks.requireNonNull(messageDigest.digest());
+	}
+
+	/**
+	 * @param classPath The path of a class file, e.g.
+	 *                  <code>org/example/Book.class</code>.
+	 * @return The package of the class in path notation, e.g.
+	 *         <code>org/example</code>, or an empty string for the default
+	 *         package.
+	 */
+	static String getPackageName(final String classPath) {
+		final int index = classPath.lastIndexOf('/');
+		return index < 0 ? "" : Checks.requireNonNull(classPath.substring(0, index)); //$NON-NLS-1$
+	}
+
+	String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @param other The same package in another bundle.
+	 * @return {@code true} if both define classes with the same paths and CRC
+	 *         checksums.
+	 */
+	boolean hasSameDigest(final ClassPackage other) {
+		return MessageDigest.isEqual(this.digest, other.digest);
+	}
+
+	/**
+	 * @param other The same package in another bundle.
+	 * @return The paths of the classes defined in both packages but with
+	 *         different CRC checksums.
+	 */
+	List<String> getConflictingClasses(final ClassPackage other) {
+		final var conflictingClasses = new ArrayList<String>();
+		if (hasSameDigest(other)) {
+			return conflictingClasses;
+		}
+		// both ranges are sorted by name, so they can be merged in a single pass
+		int i = this.start;
+		int j = other.start;
+		while (i < this.end && j < other.end) {
+			final int comparison = this.table.compareNames(i, other.table, j);
+			if (comparison == 0) {
+				if (this.table.getCrc(i) != other.table.getCrc(j)) {
+					conflictingClasses.add(this.table.getName(i));
+				}
+				i++;
+				j++;
+			} else if (comparison < 0) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+
+		return conflictingClasses;
+	}
+
+	private static MessageDigest createMessageDigest() {
+		try {
+			return Checks.requireNonNull(MessageDigest.getInstance(DIGEST_ALGORITHM));
+		} catch (final NoSuchAlgorithmException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.Arrays;
+
+/**
+ * Sorted 64-bit hashes of the class paths defined by a bundle.
+ * <p>
+ * Allows to rule out that two bundles define any class path in common by
+ * walking both arrays once, without allocating anything. Because of possible
+ * hash collisions an intersection only means that the bundles
+ * <strong>may</strong> share class paths, which must be checked exactly
+ * afterwards.
+ */
+class ClassPathHashes {
+	private final long[] hashes;
+
+	private ClassPathHashes(final long[] hashes) {
+		this.hashes = hashes;
+	}
+
+	/**
+	 * @param classEntries The class entries of a bundle.
+	 * @return The sorted hashes of the paths of the given {@code classEntries}.
+	 */
+	static ClassPathHashes of(final ClassEntryTable classEntries) {
+		final long[] hashes = new long[classEntries.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = classEntries.hashName(i);
+		}
+		Arrays.sort(hashes);
+
+		return new ClassPathHashes(hashes);
+	}
+
+	/**
+	 * @param other The hashes of another bundle.
+	 * @return {@code false} if the two bundles do definitely not define a common
+	 *         class path, {@code true} if they may do so.
+	 */
+	boolean intersects(final ClassPathHashes other) {
+		final long[] these = this.hashes;
+		final long[] those = other.hashes;
+		if (these.length == 0 || those.length == 0 || these[these.length - 1] < those[0]
+				|| those[those.length - 1] < these[0]) {
+			return false;
+		}
+		int i = 0;
+		int j = 0;
+		while (i < these.length && j < those.length) {
+			final long thisHash = these[i];
+			final long thatHash = those[j];
+			if (thisHash == thatHash) {
+				return true;
+			}
+			if (thisHash < thatHash) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+
+		return false;
+	}
+}
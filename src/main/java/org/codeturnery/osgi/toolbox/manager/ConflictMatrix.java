@@ -0,0 +1,263 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * All pairwise conflicts between the bundles of a registry at the moment the
+ * matrix was computed via {@link OsgiBundleRegistry#computeConflictMatrix()}.
+ * <p>
+ * The matrix is symmetric, each conflicting pair is stored only once and
+ * {@link BundleConflict} instances are created from the perspective of the
+ * requested bundle on access. Bundles without any conflict take up no space.
+ * <p>
+ * The bundle instances are those of the time of computation and may have
+ * expired since.
+ */
+public class ConflictMatrix {
+	/**
+	 * The number of shared packages a single fork-join task handles without
+	 * splitting them further.
+	 */
+	private static final int THRESHOLD = 1024;
+
+	private final List<RegisteredBundle> bundles;
+	private final Map<RegisteredBundle, Integer> indexes;
+	/**
+	 * Keyed by {@link #getPairKey(int, int)}.
+	 */
+	private final Map<Long, PairConflict> conflicts;
+
+	private ConflictMatrix(final List<RegisteredBundle> bundles, final Map<RegisteredBundle, Integer> indexes,
+			final Map<Long, PairConflict> conflicts) {
+		this.bundles = Checks.requireNonNull(Collections.unmodifiableList(bundles));
+		this.indexes = indexes;
+		this.conflicts = conflicts;
+	}
+
+	/**
+	 * @return The bundles the matrix was computed for, in the order of the
+	 *         registry.
+	 */
+	public List<RegisteredBundle> getBundles() {
+		return this.bundles;
+	}
+
+	/**
+	 * @param bundle One of the {@link #getBundles() bundles} of this matrix.
+	 * @return The same conflicts as {@link RegisteredBundle#getConflicts()} would
+	 *         have returned at the time the matrix was computed.
+	 * @throws UnknownBundleException if the given bundle is not part of this
+	 *                                matrix
+	 */
+	public Set<BundleConflict> getConflicts(final RegisteredBundle bundle) throws UnknownBundleException {
+		final int index = getIndex(bundle);
+		final var bundleConflicts = new HashSet<BundleConflict>();
+		for (int otherIndex = 0; otherIndex < this.bundles.size(); otherIndex++) {
+			if (otherIndex != index) {
+				final Long pairKey = Long.valueOf(getPairKey(index, otherIndex));
+				if (this.conflicts.containsKey(pairKey)) {
+					bundleConflicts.add(Checks.requireNonNull(this.conflicts.get(pairKey))
+							.toBundleConflict(Checks.requireNonNull(this.bundles.get(otherIndex))));
+				}
+			}
+		}
+
+		return bundleConflicts;
+	}
+
+	/**
+	 * @param bundle      One of the {@link #getBundles() bundles} of this matrix.
+	 * @param otherBundle Another one of the {@link #getBundles() bundles} of this
+	 *                    matrix.
+	 * @return The conflict of the given {@code bundle} with the given
+	 *         {@code otherBundle}, if any.
+	 * @throws UnknownBundleException if one of the given bundles is not part of
+	 *                                this matrix
+	 */
+	@SuppressWarnings("null")
+	public Optional<BundleConflict> getConflict(final RegisteredBundle bundle, final RegisteredBundle otherBundle)
+			throws UnknownBundleException {
+		final int index = getIndex(bundle);
+		final int otherIndex = getIndex(otherBundle);
+		if (index == otherIndex) {
+			return Optional.empty();
+		}
+		final Long pairKey = Long.valueOf(getPairKey(index, otherIndex));
+		if (!this.conflicts.containsKey(pairKey)) {
+			return Optional.empty();
+		}
+
+		return Optional.of(this.conflicts.get(pairKey).toBundleConflict(otherBundle));
+	}
+
+	/**
+	 * @return The number of conflicting bundle pairs.
+	 */
+	public int getConflictCount() {
+		return this.conflicts.size();
+	}
+
+	public boolean isEmpty() {
+		return this.conflicts.isEmpty();
+	}
+
+	private int getIndex(final RegisteredBundle bundle) throws UnknownBundleException {
+		if (!this.indexes.containsKey(bundle)) {
+			throw new UnknownBundleException("The bundle is not part of this conflict matrix.");
+		}
+
+		return Checks.requireNonNull(this.indexes.get(bundle)).intValue();
+	}
+
+	/**
+	 * Computes the matrix for the given bundles. Class conflicts are determined
+	 * from the packages contained in more than one bundle, which are split
+	 * between the tasks of the given {@code pool}.
+	 *
+	 * @param bundles      The current instances of all bundles of a registry.
+	 * @param packageIndex The package index of the same registry.
+	 * @param pool         The pool to compute the class conflicts in.
+	 * @return The computed matrix.
+	 */
+	@SuppressWarnings("null")
+	static ConflictMatrix compute(final List<RegisteredOsgiBundle> bundles, final PackageIndex packageIndex,
+			final ForkJoinPool pool) {
+		final var bundleList = new ArrayList<RegisteredBundle>(bundles);
+		final var indexes = new HashMap<RegisteredBundle, Integer>();
+		final var indexesByHash = new HashMap<String, Integer>();
+		final var indexesBySymbolicName = new HashMap<String, List<Integer>>();
+		for (int i = 0; i < bundles.size(); i++) {
+			final RegisteredOsgiBundle bundle = Checks.requireNonNull(bundles.get(i));
+			final Integer index = Integer.valueOf(i);
+			indexes.put(bundle, index);
+			indexesByHash.put(bundle.contentHash, index);
+			indexesBySymbolicName.computeIfAbsent(bundle.getSymbolicName(), name -> new ArrayList<>()).add(index);
+		}
+
+		final List<List<PackageIndex.PackageOwner>> sharedPackages = packageIndex.getSharedPackages();
+		final Map<Long, Map<String, Set<String>>> classConflicts = Checks.requireNonNull(
+				pool.invoke(new ClassConflictTask(sharedPackages, indexesByHash, 0, sharedPackages.size())));
+
+		final var conflicts = new HashMap<Long, PairConflict>();
+		for (final Map.Entry<Long, Map<String, Set<String>>> classConflict : classConflicts.entrySet()) {
+			conflicts.put(classConflict.getKey(), new PairConflict(classConflict.getValue(), false));
+		}
+		for (final List<Integer> sameNameIndexes : indexesBySymbolicName.values()) {
+			for (int i = 0; i < sameNameIndexes.size(); i++) {
+				for (int j = i + 1; j < sameNameIndexes.size(); j++) {
+					final Long pairKey = Long.valueOf(getPairKey(Checks.requireNonNull(sameNameIndexes.get(i)).intValue(),
+							Checks.requireNonNull(sameNameIndexes.get(j)).intValue()));
+					final Map<String, Set<String>> conflictingPackages = conflicts.containsKey(pairKey)
+							? Checks.requireNonNull(conflicts.get(pairKey)).conflictingPackages
+							: Checks.requireNonNull(Collections.<String, Set<String>>emptyMap());
+					conflicts.put(pairKey, new PairConflict(conflictingPackages, true));
+				}
+			}
+		}
+
+		return new ConflictMatrix(bundleList, indexes, conflicts);
+	}
+
+	/**
+	 * @return A key identical for both orders of the given indexes.
+	 */
+	private static long getPairKey(final int index, final int otherIndex) {
+		final int lower = Math.min(index, otherIndex);
+		final int higher = Math.max(index, otherIndex);
+
+		return ((long) lower << 32) | higher;
+	}
+
+	/**
+	 * The conflict between two bundles, independent from the perspective.
+	 */
+	private static class PairConflict {
+		private final Map<String, Set<String>> conflictingPackages;
+		private final boolean symbolicNameConflict;
+
+		PairConflict(final Map<String, Set<String>> conflictingPackages, final boolean symbolicNameConflict) {
+			this.conflictingPackages = conflictingPackages;
+			this.symbolicNameConflict = symbolicNameConflict;
+		}
+
+		BundleConflict toBundleConflict(final RegisteredBundle conflictingBundle) {
+			return new BundleConflict(conflictingBundle, this.conflictingPackages, this.symbolicNameConflict);
+		}
+	}
+
+	/**
+	 * Determines the conflicting bundle pairs of a range of shared packages,
+	 * splitting the range in halves until it is small enough. Only packages with
+	 * different digests are compared class by class.
+	 */
+	private static class ClassConflictTask extends RecursiveTask<Map<Long, Map<String, Set<String>>>> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<List<PackageIndex.PackageOwner>> sharedPackages;
+		private final Map<String, Integer> indexesByHash;
+		private final int from;
+		private final int to;
+
+		ClassConflictTask(final List<List<PackageIndex.PackageOwner>> sharedPackages,
+				final Map<String, Integer> indexesByHash, final int from, final int to) {
+			this.sharedPackages = sharedPackages;
+			this.indexesByHash = indexesByHash;
+			this.from = from;
+			this.to = to;
+		}
+
+		@SuppressWarnings("null")
+		@Override
+		protected Map<Long, Map<String, Set<String>>> compute() {
+			if (this.to - this.from > THRESHOLD) {
+				final int middle = (this.from + this.to) >>> 1;
+				final var lowerHalf = new ClassConflictTask(this.sharedPackages, this.indexesByHash, this.from,
+						middle);
+				lowerHalf.fork();
+				final Map<Long, Map<String, Set<String>>> result = new ClassConflictTask(this.sharedPackages,
+						this.indexesByHash, middle, this.to).compute();
+				// each package is handled by a single task, so the package maps are disjoint
+				for (final Map.Entry<Long, Map<String, Set<String>>> entry : lowerHalf.join().entrySet()) {
+					result.computeIfAbsent(entry.getKey(), key -> new HashMap<>()).putAll(entry.getValue());
+				}
+
+				return result;
+			}
+
+			final var result = new HashMap<Long, Map<String, Set<String>>>();
+			for (int i = this.from; i < this.to; i++) {
+				final List<PackageIndex.PackageOwner> owners = Checks.requireNonNull(this.sharedPackages.get(i));
+				for (int j = 0; j < owners.size(); j++) {
+					final PackageIndex.PackageOwner owner = Checks.requireNonNull(owners.get(j));
+					for (int k = j + 1; k < owners.size(); k++) {
+						final PackageIndex.PackageOwner otherOwner = Checks.requireNonNull(owners.get(k));
+						final List<String> conflictingClasses = owner.getPackage()
+								.getConflictingClasses(otherOwner.getPackage());
+						if (!conflictingClasses.isEmpty()) {
+							final Long pairKey = Long.valueOf(getPairKey(getIndex(owner), getIndex(otherOwner)));
+							result.computeIfAbsent(pairKey, key -> new HashMap<>())
+									.put(owner.getPackage().getName(), new HashSet<>(conflictingClasses));
+						}
+					}
+				}
+			}
+
+			return result;
+		}
+
+		private int getIndex(final PackageIndex.PackageOwner owner) {
+			return Checks.requireNonNull(this.indexesByHash.get(owner.getContentHash())).intValue();
+		}
+	}
+}
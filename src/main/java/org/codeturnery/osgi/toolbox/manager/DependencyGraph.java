@@ -0,0 +1,159 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * The dependencies between a set of bundles installed in the OSGi framework,
+ * derived from the wires of their current {@link BundleWiring}. A bundle
+ * depends on another one if it imports a package exported by it
+ * ({@code Import-Package}) or requires it ({@code Require-Bundle}).
+ * <p>
+ * Bundles are referenced by their position in the list the graph was created
+ * from. Only dependencies between bundles of that list are contained.
+ */
+class DependencyGraph {
+	private static final String[] NAMESPACES = { PackageNamespace.PACKAGE_NAMESPACE,
+			BundleNamespace.BUNDLE_NAMESPACE };
+
+	/**
+	 * The positions of the bundles each bundle depends on.
+	 */
+	private final List<Set<Integer>> dependencies;
+	/**
+	 * The positions of the bundles depending on each bundle.
+	 */
+	private final List<Set<Integer>> dependents;
+
+	private DependencyGraph(final List<Set<Integer>> dependencies, final List<Set<Integer>> dependents) {
+		this.dependencies = dependencies;
+		this.dependents = dependents;
+	}
+
+	/**
+	 * @param bundles The bundles to determine the dependencies of. Bundles that
+	 *                are not resolved have no wiring yet and thus no
+	 *                dependencies, so they should be resolved beforehand.
+	 * @return The dependencies between the given bundles.
+	 */
+	@SuppressWarnings("null")
+	static DependencyGraph of(final List<Bundle> bundles) {
+		final var positions = new HashMap<Long, Integer>(bundles.size() * 4 / 3 + 1);
+		final var dependencies = new ArrayList<Set<Integer>>(bundles.size());
+		final var dependents = new ArrayList<Set<Integer>>(bundles.size());
+		for (int i = 0; i < bundles.size(); i++) {
+			positions.put(Long.valueOf(bundles.get(i).getBundleId()), Integer.valueOf(i));
+			dependencies.add(new LinkedHashSet<>());
+			dependents.add(new LinkedHashSet<>());
+		}
+		for (int i = 0; i < bundles.size(); i++) {
+			final @Nullable BundleWiring wiring = bundles.get(i).<@Nullable BundleWiring>adapt(BundleWiring.class);
+			if (wiring == null) {
+				continue;
+			}
+			for (final String namespace : NAMESPACES) {
+				final @Nullable List<BundleWire> wires = wiring.getRequiredWires(namespace);
+				if (wires == null) {
+					continue;
+				}
+				for (final BundleWire wire : wires) {
+					final Long providerId = Long.valueOf(wire.getProviderWiring().getBundle().getBundleId());
+					if (positions.containsKey(providerId)) {
+						final Integer provider = positions.get(providerId);
+						if (provider.intValue() != i) {
+							dependencies.get(i).add(provider);
+							dependents.get(provider.intValue()).add(Integer.valueOf(i));
+						}
+					}
+				}
+			}
+		}
+
+		return new DependencyGraph(dependencies, dependents);
+	}
+
+	/**
+	 * @param position The position of a bundle.
+	 * @return The positions of the bundles the given bundle depends on.
+	 */
+	@SuppressWarnings("null")
+	Set<Integer> getDependencies(final int position) {
+		return Collections.unmodifiableSet(this.dependencies.get(position));
+	}
+
+	/**
+	 * @param position The position of a bundle.
+	 * @return The positions of the bundles depending on the given bundle.
+	 */
+	@SuppressWarnings("null")
+	Set<Integer> getDependents(final int position) {
+		return Collections.unmodifiableSet(this.dependents.get(position));
+	}
+
+	/**
+	 * Splits the bundles into waves, so that each bundle only depends on bundles
+	 * of earlier waves. The bundles of a single wave are independent of each
+	 * other.
+	 * <p>
+	 * Bundles within a dependency cycle or depending on one can not be ordered.
+	 * They are put into a final wave together.
+	 *
+	 * @return The positions of the bundles of each wave, in ascending order.
+	 */
+	@SuppressWarnings("null")
+	List<List<Integer>> getWaves() {
+		final int[] pendingDependencies = new int[this.dependencies.size()];
+		List<Integer> wave = new ArrayList<>();
+		for (int i = 0; i < pendingDependencies.length; i++) {
+			pendingDependencies[i] = this.dependencies.get(i).size();
+			if (pendingDependencies[i] == 0) {
+				wave.add(Integer.valueOf(i));
+			}
+		}
+		final var waves = new ArrayList<List<Integer>>();
+		int orderedCount = 0;
+		while (!wave.isEmpty()) {
+			waves.add(wave);
+			orderedCount += wave.size();
+			final var nextWave = new ArrayList<Integer>();
+			for (final Integer position : wave) {
+				for (final Integer dependent : this.dependents.get(position.intValue())) {
+					if (--pendingDependencies[dependent.intValue()] == 0) {
+						nextWave.add(dependent);
+					}
+				}
+			}
+			Collections.sort(nextWave);
+			wave = nextWave;
+		}
+		if (orderedCount < pendingDependencies.length) {
+			final var remainingWave = new ArrayList<Integer>();
+			for (int i = 0; i < pendingDependencies.length; i++) {
+				if (pendingDependencies[i] > 0) {
+					remainingWave.add(Integer.valueOf(i));
+				}
+			}
+			waves.add(remainingWave);
+		}
+
+		return waves;
+	}
+
+	/**
+	 * @return The total number of bundles in this graph.
+	 */
+	int size() {
+		return this.dependencies.size();
+	}
+}
@@ -0,0 +1,285 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Keeps the results of another {@link BundleScanner} in a binary index file,
+ * so that JAR files which did not change since they were scanned last do not
+ * need to be opened again, not even in a later process.
+ * <p>
+ * Entries are keyed by the absolute path of the JAR file and are only used if
+ * the size and the last modification time of the file still match. Each entry
+ * additionally stores the SHA-256 hash of the file content calculated by the
+ * delegate, so it does not need to be calculated again either.
+ * <p>
+ * Only the main attributes of the manifest are kept in the index.
+ * <p>
+ * The index file is read on the first scan and written on {@link #flush()},
+ * which the {@link OsgiBundleRegistry} invokes when it is closed. If the index
+ * file can not be read it is ignored and rebuilt.
+ */
+class IndexedBundleScanner extends BundleScanner {
+
+	private static final int MAGIC = 0x4F544249; // "OTBI"
+	private static final int FORMAT_VERSION = 2;
+
+	private final Path indexFile;
+	private final BundleScanner delegate;
+	private final Map<String, IndexEntry> entries = new ConcurrentHashMap<>();
+	private volatile boolean loaded = false;
+	private volatile boolean modified = false;
+
+	IndexedBundleScanner(final Path indexFile, final BundleScanner delegate) {
+		this.indexFile = indexFile;
+		this.delegate = delegate;
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	BundleScan scan(final File jarFile) throws IOException, BundleViolationException {
+		load();
+		final Path path = jarFile.toPath().toAbsolutePath();
+		final String key = path.toString();
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final long size = attributes.size();
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+
+		final @Nullable IndexEntry entry = this.entries.get(key);
+		if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+			return entry.toScan();
+		}
+
+		final BundleScan scan = this.delegate.scan(jarFile);
+		this.entries.put(key, new IndexEntry(size, lastModified, scan));
+		this.modified = true;
+
+		return scan;
+	}
+
+	/**
+	 * Writes the index file if entries were added since it was read or written
+	 * last. Entries of JAR files that no longer exist are dropped.
+	 * <p>
+	 * The index is marked as unmodified before the entries are copied, so that
+	 * entries added by concurrent scans after the copy mark it as modified again
+	 * and are written by the next flush. If writing fails the index stays marked
+	 * as modified.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		if (!this.modified) {
+			return;
+		}
+		this.modified = false;
+		try {
+			this.entries.keySet().removeIf(key -> !Files.exists(Path.of(key)));
+			write(new HashMap<>(this.entries));
+		} catch (final Throwable exception) {
+			this.modified = true;
+			throw exception;
+		}
+	}
+
+	private void write(final Map<String, IndexEntry> snapshot) throws IOException {
+		final Path absoluteIndexFile = this.indexFile.toAbsolutePath();
+		final Path directory = Checks.requireNonNull(absoluteIndexFile.getParent());
+		Files.createDirectories(directory);
+		final Path temporaryFile = Files.createTempFile(directory, absoluteIndexFile.getFileName().toString(),
+				".tmp"); //$NON-NLS-1$
+		try {
+			try (final var output = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+				output.writeInt(MAGIC);
+				output.writeInt(FORMAT_VERSION);
+				output.writeInt(snapshot.size());
+				for (final Map.Entry<String, IndexEntry> entry : snapshot.entrySet()) {
+					writeString(output, Checks.requireNonNull(entry.getKey()));
+					Checks.requireNonNull(entry.getValue()).write(output);
+				}
+			}
+			Files.move(temporaryFile, absoluteIndexFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	private void load() {
+		if (!this.loaded) {
+			synchronized (this) {
+				if (!this.loaded) {
+					read();
+					this.loaded = true;
+				}
+			}
+		}
+	}
+
+	private void read() {
+		try (final var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.indexFile)))) {
+			if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+				return;
+			}
+			final int count = input.readInt();
+			final var readEntries = new HashMap<String, IndexEntry>(count);
+			for (int i = 0; i < count; i++) {
+				readEntries.put(readString(input), IndexEntry.read(input));
+			}
+			this.entries.putAll(readEntries);
+		} catch (@SuppressWarnings("unused") final NoSuchFileException exception) {
+			// nothing indexed yet
+		} catch (@SuppressWarnings("unused") final IOException | RuntimeException exception) {
+			// a broken index is ignored and will be replaced on the next flush
+			this.modified = true;
+		}
+	}
+
+	private static void writeString(final DataOutputStream output, final String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(final DataInputStream input) throws IOException {
+		final byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The indexed information of a single JAR file.
+	 */
+	private static class IndexEntry {
+		private final long size;
+		private final long lastModified;
+		private final String contentHash;
+		private final List<String[]> mainAttributes;
+		private final ClassEntryTable classEntries;
+
+		IndexEntry(final long size, final long lastModified, final String contentHash,
+				final List<String[]> mainAttributes, final ClassEntryTable classEntries) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.contentHash = contentHash;
+			this.mainAttributes = mainAttributes;
+			this.classEntries = classEntries;
+		}
+
+		IndexEntry(final long size, final long lastModified, final BundleScan scan) {
+			this(size, lastModified, scan.getContentHash(), getMainAttributes(scan.getManifest()),
+					scan.getClassEntries());
+		}
+
+		BundleScan toScan() {
+			final var manifest = new Manifest();
+			final Attributes attributes = manifest.getMainAttributes();
+			for (final String[] attribute : this.mainAttributes) {
+				attributes.putValue(attribute[0], attribute[1]);
+			}
+
+			return new BundleScan(manifest, this.classEntries, this.contentHash);
+		}
+
+		/**
+		 * Class names are written in the order of the {@link ClassEntryTable}, with
+		 * the length of the prefix they share with the previous name, followed by
+		 * the remaining suffix.
+		 */
+		@SuppressWarnings("null")
+		void write(final DataOutputStream output) throws IOException {
+			output.writeLong(this.size);
+			output.writeLong(this.lastModified);
+			writeString(output, this.contentHash);
+
+			output.writeInt(this.mainAttributes.size());
+			for (final String[] attribute : this.mainAttributes) {
+				writeString(output, Checks.requireNonNull(attribute[0]));
+				writeString(output, Checks.requireNonNull(attribute[1]));
+			}
+
+			output.writeInt(this.classEntries.size());
+			String previousName = ""; //$NON-NLS-1$
+			for (int i = 0; i < this.classEntries.size(); i++) {
+				final String className = this.classEntries.getName(i);
+				final int prefixLength = getCommonPrefixLength(previousName, className);
+				output.writeInt(prefixLength);
+				writeString(output, className.substring(prefixLength));
+				output.writeInt((int) this.classEntries.getCrc(i));
+				output.writeLong(this.classEntries.getSize(i));
+				previousName = className;
+			}
+		}
+
+		static IndexEntry read(final DataInputStream input) throws IOException {
+			final long size = input.readLong();
+			final long lastModified = input.readLong();
+			final String contentHash = readString(input);
+
+			final int attributeCount = input.readInt();
+			final var mainAttributes = new ArrayList<String[]>(attributeCount);
+			for (int i = 0; i < attributeCount; i++) {
+				mainAttributes.add(new String[] { readString(input), readString(input) });
+			}
+
+			final int classCount = input.readInt();
+			final var classEntries = new ArrayList<ClassEntry>(classCount);
+			String previousName = ""; //$NON-NLS-1$
+			for (int i = 0; i < classCount; i++) {
+				final String className = previousName.substring(0, input.readInt()) + readString(input);
+				final long crc = Integer.toUnsignedLong(input.readInt());
+				classEntries.add(new ClassEntry(className, crc, input.readLong()));
+				previousName = className;
+			}
+
+			return new IndexEntry(size, lastModified, contentHash, mainAttributes,
+					ClassEntryTable.of(classEntries));
+		}
+
+		@SuppressWarnings("null")
+		private static List<String[]> getMainAttributes(final Manifest manifest) {
+			final Attributes attributes = manifest.getMainAttributes();
+			final var mainAttributes = new ArrayList<String[]>(attributes.size());
+			for (final Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+				mainAttributes.add(new String[] { attribute.getKey().toString(), attribute.getValue().toString() });
+			}
+
+			return mainAttributes;
+		}
+
+		private static int getCommonPrefixLength(final String first, final String second) {
+			final int maxLength = Math.min(first.length(), second.length());
+			int length = 0;
+			while (length < maxLength && first.charAt(length) == second.charAt(length)) {
+				length++;
+			}
+			// do not split surrogate pairs, as both parts are encoded separately
+			if (length > 0 && Character.isHighSurrogate(second.charAt(length - 1))) {
+				length--;
+			}
+
+			return length;
+		}
+	}
+}
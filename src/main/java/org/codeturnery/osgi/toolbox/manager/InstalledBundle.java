@@ -1,6 +1,9 @@
 package org.codeturnery.osgi.toolbox.manager;
 
+import java.io.File;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 public interface InstalledBundle extends RegisteredBundle {
 	public Instant getInstallationTime();
@@ -14,6 +17,17 @@ public interface InstalledBundle extends RegisteredBundle {
 	 */
 	public RegisteredBundle uninstall() throws UninstallationException;
 
+	/**
+	 * Like {@link StartedBundle#stopCascading()} but uninstalls this bundle and
+	 * all bundles depending on it afterwards, in the same order. Works for
+	 * started bundles too, as they are stopped first.
+	 * 
+	 * @return The outcome for this bundle first, followed by the outcomes for the
+	 *         bundles depending on it. The uninstalled bundles are replaced by new
+	 *         instances like with {@link #uninstall()}.
+	 */
+	public BatchResult<RegisteredBundle> uninstallCascading();
+
 	/**
 	 * @return A new instance to be used for all further actions on this bundle.
 	 *         The current instance will be set as expired and must not be used
@@ -22,4 +36,45 @@ public interface InstalledBundle extends RegisteredBundle {
 	 * @throws StartException if a problem occurred while starting the bundle
 	 */
 	public StartedBundle start() throws StartException;
+
+	/**
+	 * Like {@link #start()} but runs on the lifecycle executor of the registry
+	 * instead of the calling thread, so that a slow activator does not block the
+	 * caller.
+	 * 
+	 * @return The future new instance, completed exceptionally with a
+	 *         {@link StartException} if a problem occurred while starting the
+	 *         bundle.
+	 */
+	public CompletableFuture<StartedBundle> startAsync();
+
+	/**
+	 * Like {@link #startAsync()} but gives up waiting after the given
+	 * {@code timeout}.
+	 * 
+	 * @param timeout The maximum duration of the start.
+	 * @return The future new instance, completed exceptionally with a
+	 *         {@link java.util.concurrent.TimeoutException} if the start did
+	 *         not finish in time. The start is not aborted in this case and may
+	 *         still succeed later on.
+	 */
+	public CompletableFuture<StartedBundle> startAsync(final Duration timeout);
+
+	/**
+	 * Replaces the JAR file of this bundle with the given one without
+	 * uninstalling it. The bundle keeps its {@link #getId() id} and
+	 * {@link #getIndex() index} in the registry.
+	 * <p>
+	 * Bundles using packages of the previous JAR file keep doing so until the
+	 * registry is {@link BundleRegistry#refresh() refreshed}.
+	 * 
+	 * @param jarFile The new JAR file of this bundle. Must not be registered as
+	 *                another bundle.
+	 * @return A new instance to be used for all further actions on this bundle.
+	 *         The current instance will be set as expired and must not be used
+	 *         anymore.
+	 * 
+	 * @throws UpdateException if a problem occurred while updating the bundle
+	 */
+	public InstalledBundle update(final File jarFile) throws UpdateException;
 }
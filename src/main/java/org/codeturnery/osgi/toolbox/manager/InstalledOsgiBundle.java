@@ -1,6 +1,14 @@
 package org.codeturnery.osgi.toolbox.manager;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
 import org.eclipse.jdt.annotation.Checks;
 import org.osgi.framework.Bundle;
 
@@ -29,6 +37,11 @@ class InstalledOsgiBundle extends RegisteredOsgiBundle implements InstalledBundl
 		this.installationTime = Checks.requireNonNull(Instant.now());
 	}
 
+	protected InstalledOsgiBundle(final InstalledOsgiBundle bundle, final RegisteredOsgiBundle content) {
+		super(bundle, content);
+		this.installationTime = bundle.installationTime;
+	}
+
 	@Override
 	public Instant getInstallationTime() {
 		return this.installationTime;
@@ -36,54 +49,135 @@ class InstalledOsgiBundle extends RegisteredOsgiBundle implements InstalledBundl
 
 	@Override
 	public StartedBundle start() throws StartException {
+		final Lock lock = this.bundleRegistry.bundleLocks.lock(this.id);
 		try {
 			throwIfExpired();
 			if (!getStage().equals(Stage.INSTALLED)) {
 				throw new StartException("The bundle must be registered and installed and not yet started to be started.");
 			}
 
+			getBundle().start();
 			expire(Stage.STARTED);
 			final StartedOsgiBundle startedBundle = new StartedOsgiBundle(this);
 			this.bundleRegistry.replaceBundleInstances(this, startedBundle);
-			getBundle().start();
 
 			return startedBundle;
 		} catch (final StartException exception) {
 			throw exception;
 		} catch (final Throwable exception) {
 			throw new StartException(exception);
+		} finally {
+			lock.unlock();
 		}
 	}
 
+	@Override
+	public CompletableFuture<StartedBundle> startAsync() {
+		return this.bundleRegistry.changeStageAsync(this::start, Checks.requireNonNull(Optional.empty()));
+	}
+
+	@Override
+	public CompletableFuture<StartedBundle> startAsync(final Duration timeout) {
+		return this.bundleRegistry.changeStageAsync(this::start, Checks.requireNonNull(Optional.of(timeout)));
+	}
+
 	@Override
 	public RegisteredOsgiBundle uninstall() throws UninstallationException {
+		final Lock lock = this.bundleRegistry.bundleLocks.lock(this.id);
 		try {
 			throwIfExpired();
 			if (!getStage().equals(Stage.INSTALLED)) {
-				// TODO: automatically stop if already started, update documentation
 				throw new UninstallationException("The bundle must be registered but stopped to be uninstalled.");
 			}
 
+			getBundle().uninstall();
 			expire(Stage.REGISTERED);
 			final RegisteredOsgiBundle registeredOsgiBundle = new RegisteredOsgiBundle(this);
 			this.bundleRegistry.replaceBundleInstances(this, registeredOsgiBundle);
-			getBundle().uninstall();
 
 			return registeredOsgiBundle;
 		} catch (final UninstallationException exception) {
 			throw exception;
 		} catch (final Throwable exception) {
 			throw new UninstallationException(exception);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public BatchResult<RegisteredBundle> uninstallCascading() {
+		return this.bundleRegistry.uninstallCascading(this);
+	}
+
+	@Override
+	public InstalledBundle update(final File jarFile) throws UpdateException {
+		return updateFrom(jarFile);
+	}
+
+	/**
+	 * Scans the given {@code jarFile} and passes its content to
+	 * {@link Bundle#update(java.io.InputStream)}, which keeps the bundle installed
+	 * (and started, if it was started before) in the OSGi framework. Only then
+	 * this instance is expired and replaced in the registry by a new instance
+	 * created via {@link #createUpdatedInstance(RegisteredOsgiBundle)}.
+	 * 
+	 * @param jarFile The new JAR file of this bundle.
+	 * @return The updated instance of this bundle, in the same stage as this one.
+	 * @throws UpdateException
+	 */
+	protected InstalledOsgiBundle updateFrom(final File jarFile) throws UpdateException {
+		final Lock lock = this.bundleRegistry.bundleLocks.lock(this.id);
+		try {
+			throwIfExpired();
+			final var content = new RegisteredOsgiBundle(jarFile, this.bundleRegistry);
+			final Optional<RegisteredOsgiBundle> existingBundle = this.bundleRegistry.reserveContent(this, content);
+			if (existingBundle.isPresent()) {
+				throw new UpdateException(new BundleAlreadyRegisteredException(jarFile, existingBundle.get(),
+						content.contentHash));
+			}
+
+			boolean replaced = false;
+			try {
+				try (final InputStream input = new FileInputStream(jarFile)) {
+					getBundle().update(input);
+				}
+				expire(getStage());
+				final InstalledOsgiBundle updatedBundle = createUpdatedInstance(content);
+				this.bundleRegistry.replaceUpdatedBundle(this, updatedBundle);
+				replaced = true;
+
+				return updatedBundle;
+			} finally {
+				if (!replaced) {
+					this.bundleRegistry.releaseContent(this, content);
+				}
+			}
+		} catch (final UpdateException exception) {
+			throw exception;
+		} catch (final Throwable exception) {
+			throw new UpdateException(exception);
+		} finally {
+			lock.unlock();
 		}
 	}
 
+	/**
+	 * @param content The new JAR file of this bundle.
+	 * @return A new instance of this bundle in the same stage, with the given
+	 *         content.
+	 */
+	protected InstalledOsgiBundle createUpdatedInstance(final RegisteredOsgiBundle content) {
+		return new InstalledOsgiBundle(this, content);
+	}
+
 	Instant getLastModified() {
 		throwIfExpired();
 		return Checks.requireNonNull(Instant.ofEpochMilli(getBundle().getLastModified()));
 	}
 
 	protected Bundle getBundle() {
-		return Checks.requireNonNull(this.bundleRegistry.getBundleContext().getBundle(this.uri.toString()),
+		return Checks.requireNonNull(this.bundleRegistry.getBundleContext().getBundle(this.location),
 				"the bundle is installed and not expired but still no corresponding OSGi bundle was found");
 	}
 }
@@ -0,0 +1,59 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Scans the JAR file via the {@link JarFile} API of the JDK, which verifies the
+ * JAR signature if present.
+ */
+class JarFileScanner extends BundleScanner {
+
+	static final JarFileScanner INSTANCE = new JarFileScanner();
+
+	@Override
+	BundleScan scan(final File jarFile) throws IOException, BundleViolationException {
+		final Manifest manifest;
+		final Map<String, ClassEntry> classEntries;
+		try (final JarFile jar = new JarFile(jarFile, true);) {
+			final @Nullable Manifest jarManifest = jar.getManifest();
+			if (jarManifest == null) {
+				throw new BundleViolationException("Missing manifest in: " + jarFile.getAbsolutePath());
+			}
+			manifest = jarManifest;
+			classEntries = determineClassEntries(jar);
+		}
+		try (final FileChannel channel = FileChannel.open(jarFile.toPath(), StandardOpenOption.READ)) {
+			return new BundleScan(manifest, classEntries, hash(Checks.requireNonNull(channel)));
+		}
+	}
+
+	@SuppressWarnings({ "null", "static-method" })
+	protected Map<String, ClassEntry> determineClassEntries(final JarFile jar) {
+		final var foundClassNames = new HashMap<String, ClassEntry>();
+		final Enumeration<@Nullable JarEntry> e = jar.entries();
+		while (e.hasMoreElements()) {
+			final JarEntry jarEntry = Checks.requireNonNull(e.nextElement());
+			final String className = jarEntry.getName();
+			if (className.endsWith(".class")) { //$NON-NLS-1$
+				final var classEntry = new ClassEntry(className, jarEntry.getCrc(), jarEntry.getSize());
+				final @Nullable ClassEntry previousClassEntry = foundClassNames.put(className, classEntry);
+				if (previousClassEntry != null) {
+					throw new IllegalStateException(className);
+				}
+			}
+		}
+		return foundClassNames;
+	}
+}
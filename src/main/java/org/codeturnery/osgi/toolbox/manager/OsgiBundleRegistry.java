@@ -3,26 +3,55 @@ package org.codeturnery.osgi.toolbox.manager;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
 import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.launch.Framework;
 import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.framework.wiring.FrameworkWiring;
 
 /**
  * Wrapper around the backing OSGi framework implementation.
@@ -31,11 +60,21 @@ import org.osgi.framework.launch.FrameworkFactory;
  * <p>
  * Should be used as singleton. Otherwise the detection for conflicting bundles
  * may get circumvented.
+ * <p>
+ * Thread safe. Stage changes of a bundle are serialized via its lock in the
+ * {@link #bundleLocks}, so that different bundles can be installed, started,
+ * stopped or uninstalled concurrently. The structure of the registry (its list
+ * of bundles and the indexes over them) is guarded by the {@link #registryLock},
+ * which is held only while the structure is read or updated but never while
+ * the OSGi framework changes a bundle.
  */
-// TODO: disallow concurrent access to writing methods
-// TODO: expect bundles subtly but highly invalid and handle them when changing stages accordingly to not break registry state on exceptions
 public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closeable {
 
+	/**
+	 * Used by {@link #close()} to shut down the registry.
+	 */
+	public static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Checks.requireNonNull(Duration.ofSeconds(30));
+
 	protected final Framework framework;
 
 	/**
@@ -45,10 +84,150 @@ public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closea
 	protected final List<RegisteredOsgiBundle> bundles;
 
 	/**
+	 * Hash indexes over the {@link #bundles}, by their id, URI, content hash and
+	 * symbolic name. Kept up to date whenever the list changes.
+	 */
+	final BundleIndex bundleIndex;
+
+	private final AtomicLong lastBundleId = new AtomicLong();
+
+	/**
+	 * Serializes the stage changes of each bundle. Must be acquired before the
+	 * {@link #registryLock}, never the other way around.
+	 */
+	final BundleLocks bundleLocks;
+
+	/**
+	 * Guards the {@link #bundles}, {@link #bundleIndex} and {@link #packageIndex}.
+	 */
+	final ReadWriteLock registryLock = new ReentrantReadWriteLock();
+
+	/**
+	 * An immutable copy of the {@link #bundles}, replaced after each change.
+	 * Readers only access this reference and never lock.
+	 */
+	private volatile RegistrySnapshot snapshot = RegistrySnapshot.empty();
+
+	/**
+	 * Notified whenever a new {@link #snapshot} was published, for threads
+	 * waiting in {@link #awaitGeneration(long, Duration)}.
+	 */
+	private final Object snapshotMonitor = new Object();
+
+	/**
+	 * The calls running on the services of each OSGi bundle, mapped by the id of
+	 * the OSGi bundle. Entries are removed once their bundle is uninstalled, even
+	 * if it was swapped, as the wrappers still referencing its services keep the
+	 * {@link ProviderCalls} they loaded and are redirected via them.
+	 */
+	private final ConcurrentMap<Long, ProviderCalls> providerCalls = new ConcurrentHashMap<>();
+
+	/**
+	 * The services loaded via {@link #loadServices(Class)} by their type.
+	 */
+	private final ConcurrentMap<Class<?>, ServiceCache<?>> serviceCaches = new ConcurrentHashMap<>();
+
+	/**
+	 * The open {@link ServiceLease}s by the service they keep in use, revoked when
+	 * the service is unregistered.
+	 */
+	private final ConcurrentMap<ServiceReference<?>, Set<OsgiServiceLease<?>>> serviceLeases = new ConcurrentHashMap<>();
+
+	/**
+	 * The packages of all known bundles, mapped by their name. Kept up to date
+	 * when bundles are registered or unregistered.
+	 */
+	final PackageIndex packageIndex;
+
+	/**
+	 * Used to read the JAR files of bundles when registering them.
+	 */
+	protected final BundleScanner bundleScanner;
+
+	/**
+	 * Used to scan multiple JAR files concurrently when registering them at once.
+	 */
+	protected final Executor registrationExecutor;
+
+	/**
+	 * Runs the stage changes requested via the asynchronous methods of the
+	 * bundles, e.g. {@link InstalledBundle#startAsync()}.
+	 */
+	protected final Executor lifecycleExecutor;
+
+	/**
+	 * Uses the {@link BundleScanner#jarFile() JarFile scanner} and the
+	 * {@link ForkJoinPool#commonPool() common pool} to scan JAR files in
+	 * {@link #registerBundles(Collection)}.
+	 * 
 	 * @param extraExports Provide otherwise missing requirements to the bundles
 	 *                     via the {@link Constants#FRAMEWORK_SYSTEMPACKAGES_EXTRA}
 	 *                     option.
 	 * @throws BundleException
+	 * 
+	 * @see #OsgiBundleRegistry(Set, BundleScanner, Executor, Executor)
+	 */
+	public OsgiBundleRegistry(final Set<String> extraExports) throws BundleException {
+		this(extraExports, Checks.requireNonNull(ForkJoinPool.commonPool()));
+	}
+
+	/**
+	 * Uses the {@link BundleScanner#jarFile() JarFile scanner}.
+	 * 
+	 * @param extraExports         Provide otherwise missing requirements to the
+	 *                             bundles via the
+	 *                             {@link Constants#FRAMEWORK_SYSTEMPACKAGES_EXTRA}
+	 *                             option.
+	 * @param registrationExecutor Used to open and scan the JAR files passed to
+	 *                             {@link #registerBundles(Collection)}
+	 *                             concurrently.
+	 * @throws BundleException
+	 * 
+	 * @see #OsgiBundleRegistry(Set, BundleScanner, Executor, Executor)
+	 */
+	public OsgiBundleRegistry(final Set<String> extraExports, final Executor registrationExecutor)
+			throws BundleException {
+		this(extraExports, BundleScanner.jarFile(), registrationExecutor);
+	}
+
+	/**
+	 * Uses the {@link #createDefaultLifecycleExecutor() default lifecycle
+	 * executor}.
+	 * 
+	 * @param extraExports         Provide otherwise missing requirements to the
+	 *                             bundles via the
+	 *                             {@link Constants#FRAMEWORK_SYSTEMPACKAGES_EXTRA}
+	 *                             option.
+	 * @param bundleScanner        Used to read the manifest and class entries
+	 *                             from the JAR files of bundles when registering
+	 *                             them.
+	 * @param registrationExecutor Used to open and scan the JAR files passed to
+	 *                             {@link #registerBundles(Collection)}
+	 *                             concurrently.
+	 * @throws BundleException
+	 * 
+	 * @see #OsgiBundleRegistry(Set, BundleScanner, Executor, Executor)
+	 */
+	public OsgiBundleRegistry(final Set<String> extraExports, final BundleScanner bundleScanner,
+			final Executor registrationExecutor) throws BundleException {
+		this(extraExports, bundleScanner, registrationExecutor, createDefaultLifecycleExecutor());
+	}
+
+	/**
+	 * @param extraExports         Provide otherwise missing requirements to the
+	 *                             bundles via the
+	 *                             {@link Constants#FRAMEWORK_SYSTEMPACKAGES_EXTRA}
+	 *                             option.
+	 * @param bundleScanner        Used to read the manifest and class entries
+	 *                             from the JAR files of bundles when registering
+	 *                             them.
+	 * @param registrationExecutor Used to open and scan the JAR files passed to
+	 *                             {@link #registerBundles(Collection)}
+	 *                             concurrently.
+	 * @param lifecycleExecutor    Used to install, start and stop bundles via
+	 *                             their asynchronous methods. Each task may block
+	 *                             for as long as the activator of a bundle takes.
+	 * @throws BundleException
 	 *
 	 * @see <a href=
 	 *      "https://stackoverflow.com/questions/18303396/classcastexception-while-getting-the-service-that-has-been-registered-in-osgi">ClassCastException
@@ -57,65 +236,616 @@ public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closea
 	 *      "https://felix.apache.org/documentation/subprojects/apache-felix-framework/apache-felix-framework-configuration-properties.html#_framework_configuration_properties">Apache
 	 *      Felix Framework Configuration Properties</a>
 	 */
-	public OsgiBundleRegistry(final Set<String> extraExports) throws BundleException {
+	public OsgiBundleRegistry(final Set<String> extraExports, final BundleScanner bundleScanner,
+			final Executor registrationExecutor, final Executor lifecycleExecutor) throws BundleException {
 		final FrameworkFactory frameworkFactory = createFrameworkFactory();
 		final Map<String, String> configuration = createFrameworkConfiguration(extraExports);
 		this.framework = Checks.requireNonNull(frameworkFactory.newFramework(configuration));
 		this.framework.start();
+		this.framework.getBundleContext().addServiceListener(this::revokeLeases);
+		this.framework.getBundleContext().addBundleListener((SynchronousBundleListener) this::removeProviderCalls);
 		this.bundles = new ArrayList<>();
+		this.bundleIndex = new BundleIndex();
+		this.packageIndex = new PackageIndex();
+		this.bundleLocks = new BundleLocks(Runtime.getRuntime().availableProcessors());
+		this.bundleScanner = bundleScanner;
+		this.registrationExecutor = registrationExecutor;
+		this.lifecycleExecutor = lifecycleExecutor;
 	}
 
-	@SuppressWarnings("null")
 	@Override
 	public List<RegisteredBundle> getBundles() {
-		return Collections.unmodifiableList(this.bundles);
+		return this.snapshot.getBundles();
+	}
+
+	@Override
+	public RegistrySnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	@Override
+	public RegistrySnapshot awaitGeneration(final long generation, final Duration timeout)
+			throws InterruptedException, TimeoutException {
+		RegistrySnapshot currentSnapshot = this.snapshot;
+		if (currentSnapshot.getGeneration() >= generation) {
+			return currentSnapshot;
+		}
+		final long deadline = System.nanoTime() + timeout.toNanos();
+		synchronized (this.snapshotMonitor) {
+			currentSnapshot = this.snapshot;
+			while (currentSnapshot.getGeneration() < generation) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new TimeoutException("Generation " + generation + " was not reached, the current one is "
+							+ currentSnapshot.getGeneration() + '.');
+				}
+				TimeUnit.NANOSECONDS.timedWait(this.snapshotMonitor, remaining);
+				currentSnapshot = this.snapshot;
+			}
+		}
+
+		return currentSnapshot;
 	}
 
 	@Override
 	public RegisteredBundle registerBundle(final File jarFile) throws RegistrationException {
-		return new RegisteredOsgiBundle(jarFile, this);
+		final var bundle = new RegisteredOsgiBundle(jarFile, this);
+		this.registryLock.writeLock().lock();
+		try {
+			// check if JAR was already registered, either from the same path or with the
+			// same content from a different path
+			final Optional<RegisteredOsgiBundle> existingBundle = this.bundleIndex.getByUri(bundle.uri);
+			if (existingBundle.isPresent()) {
+				throw new RegistrationException(new BundleAlreadyRegisteredException(jarFile, existingBundle.get()));
+			}
+			throwIfContentRegistered(jarFile, bundle, this.bundleIndex.getByContentHash(bundle.contentHash));
+			add(bundle);
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
+
+		return bundle;
+	}
+
+	@Override
+	public RegistrationResult registerBundles(final Collection<File> jarFiles) {
+		final var scans = new LinkedHashMap<File, CompletableFuture<RegisteredOsgiBundle>>();
+		for (final File jarFile : new LinkedHashSet<>(jarFiles)) {
+			scans.put(jarFile, scanAsync(jarFile));
+		}
+
+		final var scannedBundles = new LinkedHashMap<File, RegisteredOsgiBundle>();
+		final var failures = new LinkedHashMap<File, RegistrationException>();
+		for (final Map.Entry<File, CompletableFuture<RegisteredOsgiBundle>> scan : scans.entrySet()) {
+			try {
+				scannedBundles.put(scan.getKey(), awaitScan(Checks.requireNonNull(scan.getValue())));
+			} catch (final RegistrationException exception) {
+				failures.put(scan.getKey(), exception);
+			}
+		}
+
+		// the bundles of this batch are checked against each other in addition to the
+		// indexes of this registry
+		final var batchBundles = new LinkedHashMap<URI, RegisteredOsgiBundle>();
+		final var batchContent = new HashMap<String, RegisteredOsgiBundle>();
+		final var registeredBundles = new LinkedHashMap<File, RegisteredBundle>();
+		this.registryLock.writeLock().lock();
+		try {
+			for (final Map.Entry<File, RegisteredOsgiBundle> scannedBundle : scannedBundles.entrySet()) {
+				final File jarFile = Checks.requireNonNull(scannedBundle.getKey());
+				final RegisteredOsgiBundle bundle = Checks.requireNonNull(scannedBundle.getValue());
+				try {
+					final Optional<RegisteredOsgiBundle> existingBundle = this.bundleIndex.getByUri(bundle.uri);
+					if (existingBundle.isPresent()) {
+						throw new RegistrationException(
+								new BundleAlreadyRegisteredException(jarFile, existingBundle.get()));
+					}
+					if (batchBundles.containsKey(bundle.uri)) {
+						throw new RegistrationException(new BundleAlreadyRegisteredException(jarFile,
+								Checks.requireNonNull(batchBundles.get(bundle.uri))));
+					}
+					throwIfContentRegistered(jarFile, bundle, this.bundleIndex.getByContentHash(bundle.contentHash));
+					throwIfContentRegistered(jarFile, bundle,
+							Checks.requireNonNull(Optional.ofNullable(batchContent.get(bundle.contentHash))));
+					batchBundles.put(bundle.uri, bundle);
+					batchContent.put(bundle.contentHash, bundle);
+					registeredBundles.put(jarFile, bundle);
+				} catch (final RegistrationException exception) {
+					failures.put(jarFile, exception);
+				}
+			}
+			for (final RegisteredOsgiBundle bundle : batchBundles.values()) {
+				this.bundleIndex.add(bundle, this.bundles.size());
+				this.bundles.add(bundle);
+				this.packageIndex.add(bundle.contentHash, Checks.requireNonNull(bundle.packages.values()));
+			}
+			if (!batchBundles.isEmpty()) {
+				publishSnapshot();
+			}
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
+		final var orderedFailures = new LinkedHashMap<File, RegistrationException>();
+		for (final File jarFile : scans.keySet()) {
+			if (failures.containsKey(jarFile)) {
+				orderedFailures.put(jarFile, Checks.requireNonNull(failures.get(jarFile)));
+			}
+		}
+
+		return new RegistrationResult(registeredBundles, orderedFailures);
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	public Optional<RegisteredBundle> findBundle(final long bundleId) {
+		this.registryLock.readLock().lock();
+		try {
+			return this.bundleIndex.getById(bundleId).map(RegisteredBundle.class::cast);
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	public Optional<RegisteredBundle> findBundle(final URI uri) {
+		this.registryLock.readLock().lock();
+		try {
+			return this.bundleIndex.getByUri(uri).map(RegisteredBundle.class::cast);
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<RegisteredBundle> findBundles(final String symbolicName) {
+		this.registryLock.readLock().lock();
+		try {
+			return new ArrayList<>(this.bundleIndex.getBySymbolicName(symbolicName));
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<RegisteredBundle> findBundles(final String symbolicName, final BundleVersion version) {
+		this.registryLock.readLock().lock();
+		try {
+			return new ArrayList<>(this.bundleIndex
+					.getBySymbolicNameWithVersion(BundleIndex.getSymbolicNameWithVersion(symbolicName, version)));
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Resolves all given bundles with a single call to
+	 * {@link FrameworkWiring#resolveBundles(Collection)} and reads the resulting
+	 * wiring to determine which of them depend on each other. The bundles are
+	 * then started in waves via the {@link #lifecycleExecutor}, each wave after
+	 * all bundles of the previous waves were started.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public BatchResult<StartedBundle> startAll(final Collection<InstalledBundle> bundles) {
+		final List<InstalledBundle> requestedBundles = new ArrayList<>(bundles);
+		final var entries = new HashMap<Integer, BatchEntry<StartedBundle>>();
+		final var positions = new ArrayList<Integer>();
+		final var osgiBundles = new ArrayList<Bundle>();
+		for (int i = 0; i < requestedBundles.size(); i++) {
+			final InstalledBundle bundle = requestedBundles.get(i);
+			try {
+				if (!(bundle instanceof InstalledOsgiBundle) || ((InstalledOsgiBundle) bundle).bundleRegistry != this) {
+					throw new StartException("The bundle to start is not known in this registry.");
+				}
+				osgiBundles.add(((InstalledOsgiBundle) bundle).getBundle());
+				positions.add(Integer.valueOf(i));
+			} catch (final StartException exception) {
+				entries.put(Integer.valueOf(i), BatchEntry.failed(bundle, exception, Duration.ZERO, 0));
+			} catch (final Throwable exception) {
+				entries.put(Integer.valueOf(i), BatchEntry.failed(bundle, new StartException(exception), Duration.ZERO, 0));
+			}
+		}
+		Checks.requireNonNull(this.framework.adapt(FrameworkWiring.class)).resolveBundles(osgiBundles);
+		final DependencyGraph dependencyGraph = DependencyGraph.of(osgiBundles);
+
+		final List<List<Integer>> waves = dependencyGraph.getWaves();
+		for (int wave = 0; wave < waves.size(); wave++) {
+			final var starts = new HashMap<Integer, CompletableFuture<BatchEntry<StartedBundle>>>();
+			for (final Integer node : waves.get(wave)) {
+				final Integer position = positions.get(node.intValue());
+				final InstalledBundle bundle = requestedBundles.get(position.intValue());
+				if (hasFailedDependency(dependencyGraph, node.intValue(), positions, entries)) {
+					entries.put(position, BatchEntry.failed(bundle,
+							new StartException("A bundle the bundle depends on could not be started."), Duration.ZERO,
+							wave));
+				} else {
+					starts.put(position, changeStageInBatch(bundle, bundle::start, wave));
+				}
+			}
+			for (final Map.Entry<Integer, CompletableFuture<BatchEntry<StartedBundle>>> start : starts.entrySet()) {
+				entries.put(start.getKey(), start.getValue().join());
+			}
+		}
+
+		final var orderedEntries = new ArrayList<BatchEntry<StartedBundle>>(requestedBundles.size());
+		for (int i = 0; i < requestedBundles.size(); i++) {
+			orderedEntries.add(entries.get(Integer.valueOf(i)));
+		}
+
+		return new BatchResult<>(orderedEntries, waves.size());
+	}
+
+	/**
+	 * Installs the given bundles concurrently via the {@link #lifecycleExecutor}
+	 * and afterwards resolves all successfully installed bundles with a single
+	 * call to {@link FrameworkWiring#resolveBundles(Collection)}, instead of
+	 * leaving the framework to resolve each of them separately when it is
+	 * started.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public BatchResult<InstalledBundle> installAll(final Collection<RegisteredBundle> bundles) {
+		final List<RegisteredBundle> requestedBundles = new ArrayList<>(bundles);
+		final var installations = new ArrayList<CompletableFuture<BatchEntry<InstalledBundle>>>(
+				requestedBundles.size());
+		for (final RegisteredBundle bundle : requestedBundles) {
+			if (!(bundle instanceof RegisteredOsgiBundle) || ((RegisteredOsgiBundle) bundle).bundleRegistry != this) {
+				installations.add(CompletableFuture.completedFuture(BatchEntry.failed(bundle,
+						new InstallationException("The bundle to install is not known in this registry."),
+						Duration.ZERO, 0)));
+			} else {
+				installations.add(changeStageInBatch(bundle, bundle::install, 0));
+			}
+		}
+
+		final var entries = new ArrayList<BatchEntry<InstalledBundle>>(requestedBundles.size());
+		final var osgiBundles = new ArrayList<Bundle>();
+		for (final CompletableFuture<BatchEntry<InstalledBundle>> installation : installations) {
+			final BatchEntry<InstalledBundle> entry = installation.join();
+			entries.add(entry);
+			if (entry.isSucceeded()) {
+				getBundle(((InstalledOsgiBundle) entry.getResult().get()).location).ifPresent(osgiBundles::add);
+			}
+		}
+		if (!osgiBundles.isEmpty()) {
+			Checks.requireNonNull(this.framework.adapt(FrameworkWiring.class)).resolveBundles(osgiBundles);
+		}
+
+		return new BatchResult<>(entries, 1);
+	}
+
+	/**
+	 * Uninstalls the given bundles concurrently via the
+	 * {@link #lifecycleExecutor} and waits for a single {@link #refresh()}
+	 * afterwards.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public BatchResult<RegisteredBundle> uninstallAll(final Collection<InstalledBundle> bundles) {
+		final List<InstalledBundle> requestedBundles = new ArrayList<>(bundles);
+		final var uninstallations = new ArrayList<CompletableFuture<BatchEntry<RegisteredBundle>>>(
+				requestedBundles.size());
+		for (final InstalledBundle bundle : requestedBundles) {
+			if (!(bundle instanceof InstalledOsgiBundle) || ((InstalledOsgiBundle) bundle).bundleRegistry != this) {
+				uninstallations.add(CompletableFuture.completedFuture(BatchEntry.failed(bundle,
+						new UninstallationException("The bundle to uninstall is not known in this registry."),
+						Duration.ZERO, 0)));
+			} else {
+				uninstallations.add(changeStageInBatch(bundle, bundle::uninstall, 0));
+			}
+		}
+
+		final var entries = new ArrayList<BatchEntry<RegisteredBundle>>(requestedBundles.size());
+		for (final CompletableFuture<BatchEntry<RegisteredBundle>> uninstallation : uninstallations) {
+			entries.add(uninstallation.join());
+		}
+		refresh().join();
+
+		return new BatchResult<>(entries, 1);
+	}
+
+	/**
+	 * Refreshes all bundles pending removal via
+	 * {@link FrameworkWiring#refreshBundles(Collection, org.osgi.framework.FrameworkListener...)} and
+	 * completes the returned future when the framework fires the
+	 * {@link FrameworkEvent#PACKAGES_REFRESHED} event for it.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public CompletableFuture<Void> refresh() {
+		final var refresh = new CompletableFuture<Void>();
+		try {
+			Checks.requireNonNull(this.framework.adapt(FrameworkWiring.class)).refreshBundles(null, event -> {
+				if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+					refresh.complete(null);
+				} else if (event.getType() == FrameworkEvent.ERROR) {
+					refresh.completeExceptionally(event.getThrowable());
+				}
+			});
+		} catch (final Throwable exception) {
+			refresh.completeExceptionally(exception);
+		}
+
+		return refresh;
+	}
+
+	/**
+	 * Redirects the calls via the {@link ProviderCalls} of the OSGi bundle
+	 * backing the given {@code bundle} and removes the wrappers of its services
+	 * from the {@link #serviceCaches}, so that {@link #loadServices(Class)}
+	 * returns only the wrappers of the replacement while the calls drain.
+	 */
+	@Override
+	public StartedBundle swap(final StartedBundle bundle, final RegisteredBundle replacement,
+			final Duration drainTimeout) throws SwapException {
+		try {
+			if (!(bundle instanceof StartedOsgiBundle) || ((StartedOsgiBundle) bundle).bundleRegistry != this) {
+				throw new SwapException("The bundle to swap is not known in this registry.");
+			}
+			final StartedOsgiBundle startedBundle = (StartedOsgiBundle) bundle;
+			startedBundle.throwIfExpired();
+			final StartedOsgiBundle startedReplacement = startReplacement(replacement);
+
+			final long bundleId = startedBundle.getBundle().getBundleId();
+			final ProviderCalls calls = getProviderCalls(bundleId);
+			calls.redirect(startedReplacement.getBundle().getBundleId());
+			for (final ServiceCache<?> serviceCache : this.serviceCaches.values()) {
+				serviceCache.removeProvider(bundleId);
+			}
+			try {
+				calls.awaitDrained(drainTimeout);
+			} catch (final TimeoutException exception) {
+				throw new SwapException(
+						"Calls to the services of the bundle did not finish in time, the bundle is still started but receives no new calls.",
+						exception);
+			}
+			startedBundle.stop().uninstall();
+
+			return startedReplacement;
+		} catch (final SwapException exception) {
+			throw exception;
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new SwapException(exception);
+		} catch (final Throwable exception) {
+			throw new SwapException(exception);
+		}
+	}
+
+	@Override
+	public BundleTransaction beginTransaction() {
+		return new OsgiBundleTransaction(this);
 	}
 
+	/**
+	 * Uses the {@link ForkJoinPool#commonPool() common pool}.
+	 * 
+	 * @return All conflicts between the bundles currently known to this registry.
+	 * @see #computeConflictMatrix(ForkJoinPool)
+	 */
+	public ConflictMatrix computeConflictMatrix() {
+		return computeConflictMatrix(Checks.requireNonNull(ForkJoinPool.commonPool()));
+	}
+
+	/**
+	 * Determines the conflicts between all bundles currently known to this
+	 * registry at once, instead of invoking {@link RegisteredBundle#getConflicts()}
+	 * for each of them, which would compare each pair of bundles twice.
+	 * 
+	 * @param pool Used to split the comparison of the packages contained in
+	 *             multiple bundles into parallel tasks.
+	 * @return All conflicts between the bundles currently known to this registry.
+	 */
+	public ConflictMatrix computeConflictMatrix(final ForkJoinPool pool) {
+		this.registryLock.readLock().lock();
+		try {
+			return ConflictMatrix.compute(this.bundles, this.packageIndex, pool);
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Shuts down the registry via {@link #shutdown(Duration)}, waiting at most
+	 * {@link #DEFAULT_SHUTDOWN_TIMEOUT}.
+	 */
 	@Override
 	public void close() throws IOException {
 		// TODO: lock this instance (and ideally all bundles) the moment the close method is called to prevent asynchronous changes
-		
-		// TODO: is this necessary? this potentially just claims services and
-		// immediately releases them
-		final var bundleContext = getBundleContext();
-		final ServiceReference<?>[] references = this.framework.getRegisteredServices();
-		for (final ServiceReference<?> reference : references) {
-			bundleContext.ungetService(reference);
-		}
-		
-		// TODO: stop/unistall/unregister all bundles propery
-		
-		// TODO: shouldn't the bundles be uninstalled before stopping the framework?
-		// TODO: check if services are still in use before stopping?
+		shutdown(DEFAULT_SHUTDOWN_TIMEOUT);
+	}
+
+	/**
+	 * Stops all started bundles, uninstalls all installed bundles and stops the
+	 * OSGi framework, all within the given {@code timeout}.
+	 * <p>
+	 * The started bundles are stopped in the reverse order of their dependencies,
+	 * i.e. a bundle is only stopped after all bundles depending on it were
+	 * stopped. Bundles not depending on each other are stopped concurrently via
+	 * the {@link #lifecycleExecutor}. Bundles that did not stop or uninstall in
+	 * time are uninstalled from the framework directly, without waiting for them.
+	 * <p>
+	 * If the current thread is interrupted, the bundles still stopping or
+	 * uninstalling are uninstalled directly as well and the framework is stopped
+	 * without waiting for it, before the interrupt flag is restored.
+	 * <p>
+	 * The {@link ServiceCache}s stop listening for services before the framework
+	 * is stopped. The bundles stay in the registry, but it can not be used
+	 * anymore afterwards.
+	 * 
+	 * @param timeout The maximum duration of the whole shutdown.
+	 * @return What was done and how long it took.
+	 * @throws IOException if the framework could not be stopped
+	 */
+	@SuppressWarnings("null")
+	public ShutdownReport shutdown(final Duration timeout) throws IOException {
+		final long startTime = System.nanoTime();
+		final long deadline = startTime + timeout.toNanos();
+		final var stops = new ArrayList<BatchEntry<InstalledBundle>>();
+		final var uninstallations = new ArrayList<BatchEntry<RegisteredBundle>>();
+		final var forcedBundles = new ArrayList<RegisteredBundle>();
+		// the bundles whose stage change was requested but not awaited yet
+		final var pendingBundles = new ArrayList<RegisteredBundle>();
+		int waveCount = 0;
+		boolean interrupted = false;
 		try {
+			try {
+				if ((this.framework.getState() & Bundle.ACTIVE) != 0) {
+					final var startedBundles = new ArrayList<StartedOsgiBundle>();
+					final var osgiBundles = new ArrayList<Bundle>();
+					for (final RegisteredBundle bundle : this.snapshot.getBundles()) {
+						if (bundle instanceof StartedOsgiBundle && !bundle.isExpired()) {
+							startedBundles.add((StartedOsgiBundle) bundle);
+							osgiBundles.add(((StartedOsgiBundle) bundle).getBundle());
+						}
+					}
+
+					final List<List<Integer>> waves = DependencyGraph.of(osgiBundles).getWaves();
+					waveCount = waves.size();
+					for (int wave = 0; wave < waves.size(); wave++) {
+						final var waveBundles = new ArrayList<StartedOsgiBundle>();
+						final var waveStops = new ArrayList<CompletableFuture<BatchEntry<InstalledBundle>>>();
+						for (final Integer node : waves.get(waves.size() - 1 - wave)) {
+							final StartedOsgiBundle bundle = startedBundles.get(node.intValue());
+							waveBundles.add(bundle);
+							waveStops.add(changeStageInBatch(bundle, bundle::stop, wave));
+						}
+						pendingBundles.addAll(waveBundles);
+						final long waveStartTime = System.nanoTime();
+						for (int i = 0; i < waveStops.size(); i++) {
+							final Optional<BatchEntry<InstalledBundle>> stop = awaitUntil(waveStops.get(i), deadline);
+							pendingBundles.remove(waveBundles.get(i));
+							if (stop.isPresent()) {
+								stops.add(stop.get());
+							} else {
+								forcedBundles.add(waveBundles.get(i));
+								stops.add(BatchEntry.failed(waveBundles.get(i),
+										new StopException("The bundle did not stop before the deadline."),
+										getDurationSince(waveStartTime), wave));
+							}
+						}
+					}
+
+					final var installedBundles = new ArrayList<InstalledOsgiBundle>();
+					final var bundleUninstallations = new ArrayList<CompletableFuture<BatchEntry<RegisteredBundle>>>();
+					for (final RegisteredBundle bundle : this.snapshot.getBundles()) {
+						if (bundle instanceof InstalledOsgiBundle && !(bundle instanceof StartedBundle)
+								&& !bundle.isExpired()) {
+							final InstalledOsgiBundle installedBundle = (InstalledOsgiBundle) bundle;
+							installedBundles.add(installedBundle);
+							bundleUninstallations
+									.add(changeStageInBatch(installedBundle, installedBundle::uninstall, 0));
+						}
+					}
+					pendingBundles.addAll(installedBundles);
+					final long uninstallationStartTime = System.nanoTime();
+					for (int i = 0; i < bundleUninstallations.size(); i++) {
+						final Optional<BatchEntry<RegisteredBundle>> uninstallation = awaitUntil(
+								bundleUninstallations.get(i), deadline);
+						pendingBundles.remove(installedBundles.get(i));
+						if (uninstallation.isPresent()) {
+							uninstallations.add(uninstallation.get());
+						} else {
+							forcedBundles.add(installedBundles.get(i));
+							uninstallations.add(BatchEntry.failed(installedBundles.get(i),
+									new UninstallationException("The bundle was not uninstalled before the deadline."),
+									getDurationSince(uninstallationStartTime), 0));
+						}
+					}
+				}
+			} catch (@SuppressWarnings("unused") final InterruptedException exception) {
+				interrupted = true;
+				forcedBundles.addAll(pendingBundles);
+			}
+
+			for (final RegisteredBundle bundle : forcedBundles) {
+				forceUninstall((RegisteredOsgiBundle) bundle);
+			}
+			for (final ServiceCache<?> serviceCache : this.serviceCaches.values()) {
+				serviceCache.close();
+			}
+			this.serviceCaches.clear();
 			this.framework.stop();
+			boolean frameworkStopped = false;
+			if (!interrupted) {
+				final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				// a timeout of zero would wait forever
+				frameworkStopped = this.framework.waitForStop(Math.max(1, remainingMillis))
+						.getType() != FrameworkEvent.WAIT_TIMEDOUT;
+			}
+
+			return new ShutdownReport(new BatchResult<>(stops, waveCount), new BatchResult<>(uninstallations, 1),
+					forcedBundles, frameworkStopped, getDurationSince(startTime));
+		} catch (@SuppressWarnings("unused") final InterruptedException exception) {
+			interrupted = true;
+			return new ShutdownReport(new BatchResult<>(stops, waveCount), new BatchResult<>(uninstallations, 1),
+					forcedBundles, false, getDurationSince(startTime));
 		} catch (final BundleException exception) {
 			throw new IOException(exception);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			this.bundleScanner.flush();
 		}
 	}
 
-	@SuppressWarnings("null")
+	/**
+	 * Looks up the services of the given {@code type} only on the first request
+	 * and keeps them up to date via a {@link ServiceCache} afterwards. The
+	 * returned list is unmodifiable and contains the same wrapper instances on
+	 * each request, as long as their services stay registered.
+	 */
+	@SuppressWarnings({ "null", "unchecked" })
 	@Override
 	public <T> List<OsgiServiceWrapper<T>> loadServices(final Class<T> type) throws LoadServiceException {
 		try {
-			final BundleContext bundleContext = getBundleContext();
-			final Collection<ServiceReference<T>> references = bundleContext.getServiceReferences(type, null);
-			final var serviceWrappers = new ArrayList<OsgiServiceWrapper<T>>(references.size());
-			for (final ServiceReference<T> reference : references) {
-				serviceWrappers.add(createServiceWrapper(reference, type));
-			}
-
-			return serviceWrappers;
+			return ((ServiceCache<T>) this.serviceCaches.computeIfAbsent(type,
+					key -> ServiceCache.open(type, this))).getWrappers();
 		} catch (final Throwable exception) {
 			throw new LoadServiceException(type, exception);
 		}
 	}
 
+	/**
+	 * Runs each call via the {@link #lifecycleExecutor}, which starts a virtual
+	 * thread for each of them if supported by the runtime.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public <T, R> CompletableFuture<List<CallResult<R>>> callAll(final Class<T> type, final Function<T, R> function,
+			final Duration timeout) throws LoadServiceException {
+		final List<CompletableFuture<CallResult<R>>> calls = startCalls(type, function, timeout);
+
+		return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()]))
+				.thenApply(ignored -> calls.stream().map(CompletableFuture::join).toList());
+	}
+
+	/**
+	 * Runs the calls like {@link #callAll(Class, Function, Duration)} and
+	 * collects their outcomes in a queue as they finish.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public <T, R> Stream<CallResult<R>> streamAll(final Class<T> type, final Function<T, R> function,
+			final Duration timeout) throws LoadServiceException {
+		final List<CompletableFuture<CallResult<R>>> calls = startCalls(type, function, timeout);
+		final var finishedCalls = new LinkedBlockingQueue<CallResult<R>>();
+		for (final CompletableFuture<CallResult<R>> call : calls) {
+			call.thenAccept(finishedCalls::add);
+		}
+
+		return Stream.generate(() -> {
+			try {
+				return finishedCalls.take();
+			} catch (final InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException(exception);
+			}
+		}).limit(calls.size());
+	}
+
 	<T> boolean releaseService(final OsgiServiceWrapper<T> service) {
 		return releaseService(service.getServiceReference());
 	}
@@ -125,14 +855,39 @@ public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closea
 		return bundleContext.ungetService(reference);
 	}
 
-	Optional<RegisteredOsgiBundle> getBundleRegisteredFrom(final File jarFile) {
-		for (final RegisteredOsgiBundle registeredBundle : this.bundles) {
-			if (registeredBundle.isRegisteredFrom(jarFile)) {
-				return Checks.requireNonNull(Optional.of(registeredBundle));
-			}
+	/**
+	 * Tracks the given lease until it is {@link #removeLease(OsgiServiceLease)
+	 * removed}. If its service was unregistered in the meantime, the lease is
+	 * revoked right away.
+	 */
+	@SuppressWarnings("null")
+	void addLease(final OsgiServiceLease<?> lease) {
+		final ServiceReference<?> reference = lease.getServiceReference();
+		this.serviceLeases.compute(reference, (key, leases) -> {
+			final Set<OsgiServiceLease<?>> presentLeases = leases == null ? ConcurrentHashMap.newKeySet() : leases;
+			presentLeases.add(lease);
+			return presentLeases;
+		});
+		if (reference.getBundle() == null) {
+			revokeLeases(reference);
 		}
+	}
+
+	@SuppressWarnings("null")
+	void removeLease(final OsgiServiceLease<?> lease) {
+		this.serviceLeases.computeIfPresent(lease.getServiceReference(), (key, leases) -> {
+			leases.remove(lease);
+			return leases.isEmpty() ? null : leases;
+		});
+	}
 
-		return Checks.requireNonNull(Optional.empty());
+	Optional<RegisteredOsgiBundle> getBundleRegisteredFrom(final File jarFile) {
+		this.registryLock.readLock().lock();
+		try {
+			return this.bundleIndex.getByUri(Checks.requireNonNull(jarFile.getAbsoluteFile().toURI()));
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
 	}
 
 	BundleContext getBundleContext() throws IllegalArgumentException {
@@ -146,23 +901,115 @@ public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closea
 	}
 
 	void replaceBundleInstances(final RegisteredOsgiBundle presentBundle, final RegisteredOsgiBundle replacement) {
-		replacement.throwIfExpired();
-		throwIfInRegistry(replacement);
-		this.bundles.set(getBundleIndex(presentBundle), replacement);
+		this.registryLock.writeLock().lock();
+		try {
+			replacement.throwIfExpired();
+			throwIfInRegistry(replacement);
+			this.bundles.set(getBundleIndex(presentBundle), replacement);
+			this.bundleIndex.replace(replacement);
+			publishSnapshot();
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Like {@link #replaceBundleInstances(RegisteredOsgiBundle, RegisteredOsgiBundle)}
+	 * but for a bundle updated from another JAR file, thus updates the indexes
+	 * over the content of the bundles as well.
+	 * 
+	 * @param presentBundle The instance to replace.
+	 * @param replacement   The updated instance, whose content must have been
+	 *                      {@link #reserveContent(RegisteredOsgiBundle, RegisteredOsgiBundle)
+	 *                      reserved}.
+	 */
+	void replaceUpdatedBundle(final RegisteredOsgiBundle presentBundle, final RegisteredOsgiBundle replacement) {
+		this.registryLock.writeLock().lock();
+		try {
+			replacement.throwIfExpired();
+			throwIfInRegistry(replacement);
+			if (!this.bundleIndex.isContentReserved(presentBundle, replacement)) {
+				throw new IllegalStateException("The content of the updated bundle was not reserved for it.");
+			}
+			this.bundles.set(getBundleIndex(presentBundle), replacement);
+			this.bundleIndex.replaceContent(presentBundle, replacement);
+			this.packageIndex.remove(presentBundle.contentHash, Checks.requireNonNull(presentBundle.packages.values()));
+			this.packageIndex.add(replacement.contentHash, Checks.requireNonNull(replacement.packages.values()));
+			publishSnapshot();
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reserves the URI and content hash of the given {@code content} for the
+	 * given {@code bundle} until it was
+	 * {@link #replaceUpdatedBundle(RegisteredOsgiBundle, RegisteredOsgiBundle)
+	 * replaced} by its updated instance or the reservation was
+	 * {@link #releaseContent(RegisteredOsgiBundle, RegisteredOsgiBundle)
+	 * released}. In the meantime no other bundle can be registered from the same
+	 * file or with the same content and {@link #findBundle(URI)} already returns
+	 * the given {@code bundle} for the URI of the {@code content}.
+	 * 
+	 * @param bundle  A bundle to update.
+	 * @param content The new JAR file of the given {@code bundle}.
+	 * @return Another bundle of this registry that was registered from the same
+	 *         file or with the same content as the given {@code content}, in
+	 *         which case nothing was reserved.
+	 */
+	Optional<RegisteredOsgiBundle> reserveContent(final RegisteredOsgiBundle bundle,
+			final RegisteredOsgiBundle content) {
+		this.registryLock.writeLock().lock();
+		try {
+			return this.bundleIndex.reserveContent(bundle, content);
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param bundle  A bundle that could not be updated.
+	 * @param content The content reserved for the bundle via
+	 *                {@link #reserveContent(RegisteredOsgiBundle, RegisteredOsgiBundle)}.
+	 */
+	void releaseContent(final RegisteredOsgiBundle bundle, final RegisteredOsgiBundle content) {
+		this.registryLock.writeLock().lock();
+		try {
+			this.bundleIndex.releaseContent(bundle, content);
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
 	}
 
 	void remove(final RegisteredOsgiBundle bundle) {
-		final boolean wasPresent = this.bundles.remove(bundle);
-		if (!wasPresent) {
-			throw new UnknownBundleException(
-					"The bundle can not be removed from registry as it is not present in it.");
+		this.registryLock.writeLock().lock();
+		try {
+			final int index = this.bundleIndex.getPosition(bundle);
+			if (index < 0) {
+				throw new UnknownBundleException(
+						"The bundle can not be removed from registry as it is not present in it.");
+			}
+			this.bundles.remove(index);
+			this.bundleIndex.remove(bundle, this.bundles);
+			this.packageIndex.remove(bundle.contentHash, Checks.requireNonNull(bundle.packages.values()));
+			publishSnapshot();
+		} finally {
+			this.registryLock.writeLock().unlock();
 		}
 	}
 
 	void add(final RegisteredOsgiBundle bundle) {
-		bundle.throwIfExpired();
-		throwIfInRegistry(bundle);
-		this.bundles.add(bundle);
+		this.registryLock.writeLock().lock();
+		try {
+			bundle.throwIfExpired();
+			throwIfInRegistry(bundle);
+			this.bundleIndex.add(bundle, this.bundles.size());
+			this.bundles.add(bundle);
+			this.packageIndex.add(bundle.contentHash, Checks.requireNonNull(bundle.packages.values()));
+			publishSnapshot();
+		} finally {
+			this.registryLock.writeLock().unlock();
+		}
 	}
 
 	@SuppressWarnings("null")
@@ -170,9 +1017,114 @@ public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closea
 		return Optional.ofNullable(getBundleContext().getService(reference));
 	}
 
+	/**
+	 * @param uri The URI a bundle of this registry was registered or last updated
+	 *            from.
+	 * @return The installed OSGi bundle for the given {@code uri}.
+	 */
 	@SuppressWarnings("null")
 	Optional<Bundle> getBundle(final URI uri) {
-		return Optional.ofNullable(getBundleContext().getBundle(Objects.requireNonNull(uri.toString())));
+		this.registryLock.readLock().lock();
+		try {
+			return getBundle(this.bundleIndex.getByUri(uri).map(bundle -> bundle.location).orElse(uri.toString()));
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("null")
+	Optional<Bundle> getBundle(final String location) {
+		return Optional.ofNullable(getBundleContext().getBundle(location));
+	}
+
+	/**
+	 * @param reference A service provided by an OSGi bundle.
+	 * @return The calls running on the services of the OSGi bundle providing the
+	 *         given service.
+	 */
+	ProviderCalls getProviderCalls(final ServiceReference<?> reference) {
+		return getProviderCalls(getBundleId(reference));
+	}
+
+	/**
+	 * @param reference A service provided by an OSGi bundle.
+	 * @return {@code true} if the calls of the OSGi bundle providing the given
+	 *         service are redirected to a replacement.
+	 */
+	boolean isRedirected(final ServiceReference<?> reference) {
+		final Long bundleId = Long.valueOf(getBundleId(reference));
+		return this.providerCalls.containsKey(bundleId)
+				&& Checks.requireNonNull(this.providerCalls.get(bundleId)).getReplacementBundleId().isPresent();
+	}
+
+	/**
+	 * @param reference A service provided by an OSGi bundle.
+	 * @return The id of the OSGi bundle providing the given service.
+	 */
+	static long getBundleId(final ServiceReference<?> reference) {
+		return ((Long) Checks.requireNonNull(reference.getProperty(Constants.SERVICE_BUNDLEID))).longValue();
+	}
+
+	/**
+	 * Checks whether the bundle was uninstalled after looking up its calls, as
+	 * an entry added after {@link #removeProviderCalls(BundleEvent)} would never
+	 * be removed otherwise.
+	 */
+	@SuppressWarnings("null")
+	private ProviderCalls getProviderCalls(final long bundleId) {
+		final Long id = Long.valueOf(bundleId);
+		final ProviderCalls calls = this.providerCalls.computeIfAbsent(id, key -> new ProviderCalls());
+		final @Nullable BundleContext bundleContext = this.framework.getBundleContext();
+		final @Nullable Bundle bundle = bundleContext == null ? null : bundleContext.getBundle(bundleId);
+		if (bundle == null || bundle.getState() == Bundle.UNINSTALLED) {
+			this.providerCalls.remove(id, calls);
+		}
+
+		return calls;
+	}
+
+	/**
+	 * Forgets the calls of OSGi bundles once they are uninstalled.
+	 */
+	private void removeProviderCalls(final @Nullable BundleEvent event) {
+		final BundleEvent bundleEvent = Checks.requireNonNull(event);
+		if (bundleEvent.getType() == BundleEvent.UNINSTALLED) {
+			this.providerCalls.remove(Long.valueOf(bundleEvent.getBundle().getBundleId()));
+		}
+	}
+
+	/**
+	 * @param bundleId The id of an OSGi bundle.
+	 * @return {@code true} if calls on the services of the given OSGi bundle are
+	 *         tracked.
+	 */
+	boolean hasProviderCalls(final long bundleId) {
+		return this.providerCalls.containsKey(Long.valueOf(bundleId));
+	}
+
+	/**
+	 * @param <T>   The type of the service.
+	 * @param calls The calls of an OSGi bundle that was redirected to a
+	 *              replacement.
+	 * @param type  The type of the service to look up.
+	 * @return A service of the given {@code type} provided by the replacement.
+	 * @throws LoadServiceException if the replacement provides no such service
+	 */
+	@SuppressWarnings("null")
+	<T> ServiceReference<T> getReplacementReference(final ProviderCalls calls, final Class<T> type)
+			throws LoadServiceException {
+		try {
+			final long replacementBundleId = calls.getReplacementBundleId().orElseThrow().longValue();
+			for (final ServiceReference<T> reference : getBundleContext().getServiceReferences(type, null)) {
+				if (replacementBundleId == ((Long) reference.getProperty(Constants.SERVICE_BUNDLEID)).longValue()) {
+					return reference;
+				}
+			}
+		} catch (final Throwable exception) {
+			throw new LoadServiceException(type, exception);
+		}
+
+		throw new LoadServiceException(type);
 	}
 
 	/**
@@ -206,20 +1158,547 @@ public class OsgiBundleRegistry extends AbstractBundleRegistry implements Closea
 	}
 
 	int getBundleIndex(final RegisteredOsgiBundle bundle) throws UnknownBundleException {
-		final int index = this.bundles.indexOf(bundle);
-		if (index < 0) {
-			throw new UnknownBundleException("The accessed bundle is not known in this registry.");
-		}
+		this.registryLock.readLock().lock();
+		try {
+			final int index = this.bundleIndex.getPosition(bundle);
+			if (index < 0) {
+				throw new UnknownBundleException("The accessed bundle is not known in this registry.");
+			}
 
-		return index;
+			return index;
+		} finally {
+			this.registryLock.readLock().unlock();
+		}
 	}
 
 	protected void throwIfInRegistry(final RegisteredOsgiBundle bundle) {
-		if (this.bundles.contains(bundle)) {
+		if (this.bundleIndex.contains(bundle)) {
 			throw new IllegalStateException("The bundle to add is already present in this registry.");
 		}
 	}
 
+	/**
+	 * Copies the current {@link #bundles} into a new {@link #snapshot} and wakes
+	 * up the threads waiting for it.
+	 */
+	private void publishSnapshot() {
+		final RegistrySnapshot nextSnapshot = this.snapshot.next(this.bundles);
+		synchronized (this.snapshotMonitor) {
+			this.snapshot = nextSnapshot;
+			this.snapshotMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * @return A new id for a bundle scanned for this registry.
+	 */
+	long nextBundleId() {
+		return this.lastBundleId.incrementAndGet();
+	}
+
+	private static void throwIfContentRegistered(final File jarFile, final RegisteredOsgiBundle bundle,
+			final Optional<RegisteredOsgiBundle> existingBundle) throws RegistrationException {
+		if (existingBundle.isPresent()) {
+			throw new RegistrationException(
+					new BundleAlreadyRegisteredException(jarFile, existingBundle.get(), bundle.contentHash));
+		}
+	}
+
+	/**
+	 * Runs the given stage change via the {@link #lifecycleExecutor}.
+	 * 
+	 * @param <T>         The type of the new bundle instance.
+	 * @param stageChange The synchronous stage change to run.
+	 * @param timeout     If present, the returned future is completed
+	 *                    exceptionally with a {@link TimeoutException} if the stage
+	 *                    change did not finish in time. The stage change itself is
+	 *                    not interrupted and may still succeed afterwards.
+	 * @return The future new instance of the bundle or the exception that
+	 *         prevented the stage change.
+	 */
+	<T> CompletableFuture<T> changeStageAsync(final StageChange<T> stageChange, final Optional<Duration> timeout) {
+		final var future = new CompletableFuture<T>();
+		try {
+			this.lifecycleExecutor.execute(() -> {
+				try {
+					future.complete(stageChange.apply());
+				} catch (final Throwable exception) {
+					future.completeExceptionally(exception);
+				}
+			});
+		} catch (final Throwable exception) {
+			future.completeExceptionally(exception);
+		}
+		if (timeout.isPresent()) {
+			future.orTimeout(timeout.get().toNanos(), TimeUnit.NANOSECONDS);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Runs the given stage change of a bundle via the {@link #lifecycleExecutor}
+	 * and measures its duration.
+	 * 
+	 * @param <T>         The type of the new bundle instance.
+	 * @param bundle      The bundle whose stage is changed.
+	 * @param stageChange The synchronous stage change of the given
+	 *                    {@code bundle}.
+	 * @param wave        The wave of the batch the stage change belongs to.
+	 * @return The future outcome of the stage change, completed exceptionally
+	 *         only if the stage change threw something else than a
+	 *         {@link StageChangeException}.
+	 */
+	<T extends RegisteredBundle> CompletableFuture<BatchEntry<T>> changeStageInBatch(final RegisteredBundle bundle,
+			final StageChange<T> stageChange, final int wave) {
+		final var future = new CompletableFuture<BatchEntry<T>>();
+		try {
+			this.lifecycleExecutor.execute(() -> {
+				final long startTime = System.nanoTime();
+				try {
+					final T result = stageChange.apply();
+					future.complete(BatchEntry.succeeded(bundle, result, getDurationSince(startTime), wave));
+				} catch (final StageChangeException exception) {
+					future.complete(BatchEntry.failed(bundle, exception, getDurationSince(startTime), wave));
+				} catch (final Throwable exception) {
+					future.completeExceptionally(exception);
+				}
+			});
+		} catch (final Throwable exception) {
+			future.completeExceptionally(exception);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Stops the given bundle and all started bundles depending on it, see
+	 * {@link #changeStagesDependentsFirst(List, Function, Supplier)}.
+	 * 
+	 * @param bundle The bundle to stop.
+	 * @return The outcome for the given bundle first, followed by the outcomes
+	 *         for the started bundles depending on it.
+	 */
+	BatchResult<InstalledBundle> stopCascading(final StartedOsgiBundle bundle) {
+		final var startedBundles = new ArrayList<StartedOsgiBundle>();
+		for (final InstalledOsgiBundle installedBundle : getDependentClosure(bundle)) {
+			if (installedBundle instanceof StartedOsgiBundle) {
+				startedBundles.add((StartedOsgiBundle) installedBundle);
+			}
+		}
+
+		return changeStagesDependentsFirst(startedBundles, startedBundle -> startedBundle::stop,
+				() -> new StopException("A bundle depending on the bundle could not be stopped."));
+	}
+
+	/**
+	 * Stops the given bundle and all bundles depending on it like
+	 * {@link #stopCascading(StartedOsgiBundle)}, then uninstalls them in the same
+	 * order and waits for a single {@link #refresh()} afterwards. Bundles that
+	 * could not be stopped are not uninstalled.
+	 * 
+	 * @param bundle The bundle to uninstall.
+	 * @return The outcome for the given bundle first, followed by the outcomes
+	 *         for the bundles depending on it.
+	 */
+	@SuppressWarnings("null")
+	BatchResult<RegisteredBundle> uninstallCascading(final InstalledOsgiBundle bundle) {
+		final var installedBundles = new ArrayList<>(getDependentClosure(bundle));
+		final var startedBundles = new ArrayList<StartedOsgiBundle>();
+		for (final InstalledOsgiBundle installedBundle : installedBundles) {
+			if (installedBundle instanceof StartedOsgiBundle) {
+				startedBundles.add((StartedOsgiBundle) installedBundle);
+			}
+		}
+		final List<BatchEntry<InstalledBundle>> stops = changeStagesDependentsFirst(startedBundles,
+				startedBundle -> startedBundle::stop,
+				() -> new StopException("A bundle depending on the bundle could not be stopped.")).getEntries();
+
+		final var stopFailures = new IdentityHashMap<InstalledOsgiBundle, StageChangeException>();
+		for (int i = 0, stop = 0; i < installedBundles.size(); i++) {
+			if (installedBundles.get(i) instanceof StartedOsgiBundle) {
+				final BatchEntry<InstalledBundle> entry = stops.get(stop++);
+				if (entry.isSucceeded()) {
+					installedBundles.set(i, (InstalledOsgiBundle) entry.getResult().get());
+				} else {
+					stopFailures.put(installedBundles.get(i), entry.getFailure().get());
+				}
+			}
+		}
+		final BatchResult<RegisteredBundle> uninstallations = this
+				.<InstalledOsgiBundle, RegisteredBundle>changeStagesDependentsFirst(installedBundles,
+						installedBundle -> stopFailures.containsKey(installedBundle) ? () -> {
+							throw new UninstallationException(stopFailures.get(installedBundle));
+						} : installedBundle::uninstall,
+						() -> new UninstallationException(
+								"A bundle depending on the bundle could not be uninstalled."));
+		refresh().join();
+
+		return uninstallations;
+	}
+
+	/**
+	 * Uninstalls the given bundle and all bundles depending on it like
+	 * {@link #uninstallCascading(InstalledOsgiBundle)}, if it is installed, and
+	 * unregisters it afterwards. The bundles depending on it stay registered.
+	 * 
+	 * @param bundle The bundle to unregister.
+	 * @return The outcome for the given bundle first, whose result is its expired
+	 *         instance, followed by the outcomes for the bundles depending on it.
+	 */
+	@SuppressWarnings("null")
+	BatchResult<RegisteredBundle> unregisterCascading(final RegisteredOsgiBundle bundle) {
+		final var entries = new ArrayList<BatchEntry<RegisteredBundle>>();
+		int waveCount = 0;
+		RegisteredBundle registeredBundle = bundle;
+		if (bundle instanceof InstalledOsgiBundle) {
+			final BatchResult<RegisteredBundle> uninstallations = uninstallCascading((InstalledOsgiBundle) bundle);
+			final BatchEntry<RegisteredBundle> uninstallation = uninstallations.getEntries().get(0);
+			if (!uninstallation.isSucceeded()) {
+				return uninstallations;
+			}
+			registeredBundle = uninstallation.getResult().get();
+			entries.addAll(uninstallations.getEntries().subList(1, uninstallations.getEntries().size()));
+			waveCount = uninstallations.getWaveCount();
+		}
+
+		final long startTime = System.nanoTime();
+		try {
+			registeredBundle.unregister();
+			entries.add(0, BatchEntry.succeeded(bundle, registeredBundle, getDurationSince(startTime), waveCount));
+		} catch (final UnregistrationException exception) {
+			entries.add(0, BatchEntry.failed(bundle, exception, getDurationSince(startTime), waveCount));
+		}
+
+		return new BatchResult<>(entries, waveCount + 1);
+	}
+
+	/**
+	 * Starts a call of each service of the given {@code type} via the
+	 * {@link #lifecycleExecutor}.
+	 * 
+	 * @return The future outcome of each call, never completed exceptionally.
+	 * @throws LoadServiceException if the services could not be looked up
+	 */
+	@SuppressWarnings("null")
+	private <T, R> List<CompletableFuture<CallResult<R>>> startCalls(final Class<T> type,
+			final Function<T, R> function, final Duration timeout) throws LoadServiceException {
+		final List<OsgiServiceWrapper<T>> services = loadServices(type);
+		final var calls = new ArrayList<CompletableFuture<CallResult<R>>>(services.size());
+		for (final OsgiServiceWrapper<T> service : services) {
+			final long startTime = System.nanoTime();
+			final var call = new CompletableFuture<CallResult<R>>();
+			try {
+				this.lifecycleExecutor.execute(() -> {
+					try {
+						final R result = service.applyService(function);
+						call.complete(CallResult.succeeded(service, result, getDurationSince(startTime)));
+					} catch (final Throwable exception) {
+						call.complete(CallResult.failed(service, exception, getDurationSince(startTime)));
+					}
+				});
+			} catch (final Throwable exception) {
+				call.complete(CallResult.failed(service, exception, Duration.ZERO));
+			}
+			calls.add(call.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+					.exceptionally(exception -> CallResult.failed(service, exception, getDurationSince(startTime))));
+		}
+
+		return calls;
+	}
+
+	/**
+	 * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()} reflectively,
+	 * as it is only available in newer Java versions.
+	 * 
+	 * @return An executor starting a new virtual thread for each task or, if
+	 *         virtual threads are not supported by the runtime, a cached pool of
+	 *         daemon threads.
+	 */
+	@SuppressWarnings("unused")
+	protected static Executor createDefaultLifecycleExecutor() {
+		try {
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); //$NON-NLS-1$
+			return Checks.requireNonNull((Executor) factory.invoke(null));
+		} catch (final ReflectiveOperationException | RuntimeException exception) {
+			final AtomicLong threadCount = new AtomicLong();
+			return Checks.requireNonNull(Executors.newCachedThreadPool(runnable -> {
+				final var thread = new Thread(runnable, "bundle-lifecycle-" + threadCount.incrementAndGet()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}));
+		}
+	}
+
+	/**
+	 * Scans the given {@code jarFile} via the {@link #registrationExecutor} without
+	 * adding the resulting bundle to this registry.
+	 * 
+	 * @param jarFile
+	 * @return The future bundle or the exception that prevented its creation.
+	 */
+	protected CompletableFuture<RegisteredOsgiBundle> scanAsync(final File jarFile) {
+		final var scan = new CompletableFuture<RegisteredOsgiBundle>();
+		try {
+			this.registrationExecutor.execute(() -> {
+				try {
+					scan.complete(new RegisteredOsgiBundle(jarFile, this));
+				} catch (final Throwable exception) {
+					scan.completeExceptionally(exception);
+				}
+			});
+		} catch (final Throwable exception) {
+			scan.completeExceptionally(exception);
+		}
+
+		return scan;
+	}
+
+	/**
+	 * Installs and starts the given bundle. If it can not be started, it is
+	 * uninstalled again.
+	 */
+	private StartedOsgiBundle startReplacement(final RegisteredBundle replacement) throws SwapException {
+		if (!(replacement instanceof RegisteredOsgiBundle)
+				|| ((RegisteredOsgiBundle) replacement).bundleRegistry != this) {
+			throw new SwapException("The replacement is not known in this registry.");
+		}
+		final InstalledBundle installedReplacement;
+		try {
+			installedReplacement = replacement.install();
+		} catch (final InstallationException exception) {
+			throw new SwapException("The replacement could not be installed.", exception);
+		}
+		try {
+			return (StartedOsgiBundle) installedReplacement.start();
+		} catch (final StartException exception) {
+			try {
+				installedReplacement.uninstall();
+			} catch (final UninstallationException uninstallationException) {
+				exception.addSuppressed(uninstallationException);
+			}
+			throw new SwapException("The replacement could not be started.", exception);
+		}
+	}
+
+	/**
+	 * Uninstalls the OSGi bundle of the given bundle via the
+	 * {@link #lifecycleExecutor}, bypassing the registry and ignoring failures,
+	 * as the bundle may still be blocked in a stage change.
+	 */
+	private void forceUninstall(final RegisteredOsgiBundle bundle) {
+		try {
+			this.lifecycleExecutor.execute(() -> {
+				try {
+					final Optional<Bundle> osgiBundle = getBundle(bundle.location);
+					if (osgiBundle.isPresent()) {
+						osgiBundle.get().uninstall();
+					}
+				} catch (@SuppressWarnings("unused") final Throwable exception) {
+					// the framework stops the bundle anyway
+				}
+			});
+		} catch (@SuppressWarnings("unused") final Throwable exception) {
+			// the framework stops the bundle anyway
+		}
+	}
+
+	/**
+	 * Determines the bundles depending on the given one from the wiring of the
+	 * OSGi framework, i.e. the bundles importing its packages or requiring it,
+	 * the bundles importing their packages or requiring them and so on.
+	 * 
+	 * @param bundle An installed bundle.
+	 * @return The given bundle followed by all currently installed bundles
+	 *         depending on it directly or transitively, in the order of this
+	 *         registry.
+	 */
+	@SuppressWarnings("null")
+	private List<InstalledOsgiBundle> getDependentClosure(final InstalledOsgiBundle bundle) {
+		final var installedBundles = new ArrayList<InstalledOsgiBundle>();
+		final var osgiBundles = new ArrayList<Bundle>();
+		int position = -1;
+		for (final RegisteredBundle registeredBundle : this.snapshot.getBundles()) {
+			if (registeredBundle instanceof InstalledOsgiBundle && !registeredBundle.isExpired()) {
+				final InstalledOsgiBundle installedBundle = (InstalledOsgiBundle) registeredBundle;
+				final Optional<Bundle> osgiBundle = getBundle(installedBundle.location);
+				if (osgiBundle.isPresent()) {
+					if (installedBundle.getId() == bundle.getId()) {
+						position = installedBundles.size();
+					}
+					installedBundles.add(installedBundle);
+					osgiBundles.add(osgiBundle.get());
+				}
+			}
+		}
+		final var closure = new ArrayList<InstalledOsgiBundle>();
+		closure.add(bundle);
+		if (position < 0) {
+			return closure;
+		}
+
+		final DependencyGraph dependencyGraph = DependencyGraph.of(osgiBundles);
+		final var dependents = new TreeSet<Integer>();
+		final var pending = new ArrayDeque<>(dependencyGraph.getDependents(position));
+		while (!pending.isEmpty()) {
+			final Integer dependent = pending.remove();
+			if (dependent.intValue() != position && dependents.add(dependent)) {
+				pending.addAll(dependencyGraph.getDependents(dependent.intValue()));
+			}
+		}
+		for (final Integer dependent : dependents) {
+			closure.add(installedBundles.get(dependent.intValue()));
+		}
+
+		return closure;
+	}
+
+	/**
+	 * Changes the stage of the given bundles in the reverse order of their
+	 * dependencies, i.e. a bundle is only changed after all bundles depending on
+	 * it were changed. If the change of a bundle fails, the bundles it depends on
+	 * are left as they are, as they are still in use. Bundles not depending on
+	 * each other are changed concurrently via the {@link #lifecycleExecutor}.
+	 * 
+	 * @param bundles         The bundles to change.
+	 * @param stageChange     Creates the synchronous stage change of a bundle.
+	 * @param dependentFailed Creates the failure of a bundle left as it is.
+	 * @return The outcome for each of the given bundles, in the same order.
+	 */
+	@SuppressWarnings("null")
+	private <S extends InstalledOsgiBundle, T extends RegisteredBundle> BatchResult<T> changeStagesDependentsFirst(
+			final List<S> bundles, final Function<S, StageChange<T>> stageChange,
+			final Supplier<StageChangeException> dependentFailed) {
+		final var entries = new HashMap<Integer, BatchEntry<T>>();
+		final var positions = new ArrayList<Integer>();
+		final var osgiBundles = new ArrayList<Bundle>();
+		final var unknownBundles = new HashMap<Integer, CompletableFuture<BatchEntry<T>>>();
+		for (int i = 0; i < bundles.size(); i++) {
+			final S bundle = bundles.get(i);
+			final Optional<Bundle> osgiBundle = getBundle(bundle.location);
+			if (osgiBundle.isPresent()) {
+				positions.add(Integer.valueOf(i));
+				osgiBundles.add(osgiBundle.get());
+			} else {
+				// the stage change reports why the bundle is not installed
+				unknownBundles.put(Integer.valueOf(i), changeStageInBatch(bundle, stageChange.apply(bundle), 0));
+			}
+		}
+		for (final Map.Entry<Integer, CompletableFuture<BatchEntry<T>>> change : unknownBundles.entrySet()) {
+			entries.put(change.getKey(), change.getValue().join());
+		}
+		final DependencyGraph dependencyGraph = DependencyGraph.of(osgiBundles);
+
+		final List<List<Integer>> waves = dependencyGraph.getWaves();
+		for (int wave = 0; wave < waves.size(); wave++) {
+			final var changes = new HashMap<Integer, CompletableFuture<BatchEntry<T>>>();
+			for (final Integer node : waves.get(waves.size() - 1 - wave)) {
+				final Integer position = positions.get(node.intValue());
+				final S bundle = bundles.get(position.intValue());
+				if (hasFailedDependent(dependencyGraph, node.intValue(), positions, entries)) {
+					entries.put(position, BatchEntry.failed(bundle, dependentFailed.get(), Duration.ZERO, wave));
+				} else {
+					changes.put(position, changeStageInBatch(bundle, stageChange.apply(bundle), wave));
+				}
+			}
+			for (final Map.Entry<Integer, CompletableFuture<BatchEntry<T>>> change : changes.entrySet()) {
+				entries.put(change.getKey(), change.getValue().join());
+			}
+		}
+
+		final var orderedEntries = new ArrayList<BatchEntry<T>>(bundles.size());
+		for (int i = 0; i < bundles.size(); i++) {
+			orderedEntries.add(entries.get(Integer.valueOf(i)));
+		}
+
+		return new BatchResult<>(orderedEntries, waves.size());
+	}
+
+	/**
+	 * Revokes the leases of a service before it is unregistered, as the
+	 * {@link ServiceEvent#UNREGISTERING} event is delivered synchronously.
+	 */
+	private void revokeLeases(final @Nullable ServiceEvent event) {
+		final ServiceEvent serviceEvent = Checks.requireNonNull(event);
+		if (serviceEvent.getType() == ServiceEvent.UNREGISTERING) {
+			revokeLeases(Checks.requireNonNull(serviceEvent.getServiceReference()));
+		}
+	}
+
+	@SuppressWarnings("null")
+	private void revokeLeases(final ServiceReference<?> reference) {
+		final Set<OsgiServiceLease<?>> leases = this.serviceLeases.remove(reference);
+		if (leases != null) {
+			for (final OsgiServiceLease<?> lease : leases) {
+				lease.revoke();
+			}
+		}
+	}
+
+	/**
+	 * @return The result of the given future or nothing if it was not completed
+	 *         successfully before the given deadline.
+	 * @throws InterruptedException
+	 */
+	private static <T> Optional<T> awaitUntil(final CompletableFuture<T> future, final long deadline)
+			throws InterruptedException {
+		try {
+			return Checks.requireNonNull(
+					Optional.of(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)));
+		} catch (@SuppressWarnings("unused") final TimeoutException | ExecutionException exception) {
+			return Checks.requireNonNull(Optional.empty());
+		}
+	}
+
+	/**
+	 * Bundles within a dependency cycle are started in the same wave, so only
+	 * dependencies that were already started are checked.
+	 */
+	private static boolean hasFailedDependency(final DependencyGraph dependencyGraph, final int node,
+			final List<Integer> positions, final Map<Integer, BatchEntry<StartedBundle>> entries) {
+		for (final Integer dependency : dependencyGraph.getDependencies(node)) {
+			final Integer position = positions.get(dependency.intValue());
+			if (entries.containsKey(position) && !Checks.requireNonNull(entries.get(position)).isSucceeded()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Bundles within a dependency cycle are changed in the same wave, so only
+	 * dependents that were already changed are checked.
+	 */
+	private static <T extends RegisteredBundle> boolean hasFailedDependent(final DependencyGraph dependencyGraph,
+			final int node, final List<Integer> positions, final Map<Integer, BatchEntry<T>> entries) {
+		for (final Integer dependent : dependencyGraph.getDependents(node)) {
+			final Integer position = positions.get(dependent.intValue());
+			if (entries.containsKey(position) && !Checks.requireNonNull(entries.get(position)).isSucceeded()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static Duration getDurationSince(final long startTime) {
+		return Checks.requireNonNull(Duration.ofNanos(System.nanoTime() - startTime));
+	}
+
+	private static RegisteredOsgiBundle awaitScan(final CompletableFuture<RegisteredOsgiBundle> scan)
+			throws RegistrationException {
+		try {
+			return Checks.requireNonNull(scan.join());
+		} catch (final CompletionException exception) {
+			final Throwable cause = exception.getCause();
+			if (cause instanceof RegistrationException) {
+				throw (RegistrationException) cause;
+			}
+			throw new RegistrationException(cause == null ? exception : cause);
+		}
+	}
+
 	protected <T> OsgiServiceWrapper<T> createServiceWrapper(final ServiceReference<T> reference,
 			final Class<T> clazz) {
 		return new OsgiServiceWrapper<>(reference, clazz, this);
@@ -0,0 +1,263 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * Applies the changes via the batch operations of the registry, e.g.
+ * {@link OsgiBundleRegistry#installAll(java.util.Collection)}, one phase after
+ * the other. A rollback runs the same phases with the stages the bundles were
+ * in before as target.
+ */
+class OsgiBundleTransaction implements BundleTransaction {
+	private final OsgiBundleRegistry bundleRegistry;
+	private final List<Change> changes = new ArrayList<>();
+	private boolean committed = false;
+
+	OsgiBundleTransaction(final OsgiBundleRegistry bundleRegistry) {
+		this.bundleRegistry = bundleRegistry;
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	public BundleTransaction register(final File jarFile, final Stage targetStage) throws IllegalArgumentException {
+		throwIfUnregistered(targetStage);
+		this.changes.add(new Change(Optional.of(jarFile), Optional.empty(), targetStage));
+
+		return this;
+	}
+
+	@SuppressWarnings("null")
+	@Override
+	public BundleTransaction change(final RegisteredBundle bundle, final Stage targetStage)
+			throws IllegalArgumentException {
+		throwIfUnregistered(targetStage);
+		if (!(bundle instanceof RegisteredOsgiBundle) || ((RegisteredOsgiBundle) bundle).bundleRegistry != this.bundleRegistry) {
+			throw new IllegalArgumentException("The bundle to change is not known in this registry.");
+		}
+		this.changes.add(new Change(Optional.empty(), Optional.of((RegisteredOsgiBundle) bundle), targetStage));
+
+		return this;
+	}
+
+	@Override
+	public List<RegisteredBundle> commit() throws TransactionException, IllegalStateException {
+		if (this.committed) {
+			throw new IllegalStateException("The transaction was already committed.");
+		}
+		this.committed = true;
+
+		final var failures = new ArrayList<StageChangeException>();
+		moveToStages(change -> change.targetStage, true, failures);
+		if (failures.isEmpty()) {
+			final var results = new ArrayList<RegisteredBundle>(this.changes.size());
+			for (final Change change : this.changes) {
+				results.add(change.current.orElseThrow());
+			}
+
+			return results;
+		}
+
+		final var rollbackFailures = new ArrayList<StageChangeException>();
+		moveToStages(change -> change.initialStage, false, rollbackFailures);
+		final var exception = new TransactionException(Checks.requireNonNull(failures.get(0)), rollbackFailures);
+		for (int i = 1; i < failures.size(); i++) {
+			exception.addSuppressed(failures.get(i));
+		}
+		throw exception;
+	}
+
+	/**
+	 * Runs all phases, first the ones moving bundles down, so that bundles
+	 * replaced by others are stopped before the others are started.
+	 *
+	 * @param targets       The stage to move each change to.
+	 * @param stopOnFailure If {@code true}, no further phase is run after a phase
+	 *                      with failures. Otherwise all phases are run and
+	 *                      bundles that failed in one phase are simply not
+	 *                      matched by the following ones.
+	 * @param failures      Collects the failures of all phases.
+	 */
+	@SuppressWarnings("null")
+	private void moveToStages(final Function<Change, Stage> targets, final boolean stopOnFailure,
+			final List<StageChangeException> failures) {
+		final List<BooleanSupplier> phases = List.of(
+				() -> runPhase(Stage.STARTED, false,
+						bundles -> stopAll(bundles.stream().map(StartedBundle.class::cast).toList()), targets,
+						failures),
+				() -> runPhase(Stage.INSTALLED, false,
+						bundles -> this.bundleRegistry
+								.uninstallAll(bundles.stream().map(InstalledBundle.class::cast).toList()),
+						targets, failures),
+				() -> unregisterAll(targets, failures),
+				() -> registerAll(targets, failures),
+				() -> runPhase(Stage.REGISTERED, true, this.bundleRegistry::installAll, targets, failures),
+				() -> runPhase(Stage.INSTALLED, true,
+						bundles -> this.bundleRegistry
+								.startAll(bundles.stream().map(InstalledBundle.class::cast).toList()),
+						targets, failures));
+		for (final BooleanSupplier phase : phases) {
+			if (!phase.getAsBoolean() && stopOnFailure) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Moves all bundles in the given stage that must be moved further one stage
+	 * up or down.
+	 *
+	 * @param stage   The stage to move the bundles from.
+	 * @param upwards The direction to move the bundles to.
+	 * @param batch   Changes the stage of the given bundles.
+	 * @return {@code true} if all bundles of the phase were changed successfully.
+	 */
+	@SuppressWarnings("null")
+	private boolean runPhase(final Stage stage, final boolean upwards,
+			final Function<List<RegisteredBundle>, BatchResult<? extends RegisteredBundle>> batch,
+			final Function<Change, Stage> targets, final List<StageChangeException> failures) {
+		final var phaseChanges = new ArrayList<Change>();
+		final var bundles = new ArrayList<RegisteredBundle>();
+		for (final Change change : this.changes) {
+			final int direction = targets.apply(change).compareTo(stage);
+			if (change.current.isPresent() && change.getStage() == stage && (upwards ? direction > 0 : direction < 0)) {
+				phaseChanges.add(change);
+				bundles.add(change.current.get());
+			}
+		}
+		if (bundles.isEmpty()) {
+			return true;
+		}
+
+		final BatchResult<? extends RegisteredBundle> result = batch.apply(bundles);
+		for (int i = 0; i < phaseChanges.size(); i++) {
+			final BatchEntry<? extends RegisteredBundle> entry = result.getEntries().get(i);
+			if (entry.isSucceeded()) {
+				phaseChanges.get(i).current = Optional.of((RegisteredOsgiBundle) entry.getResult().get());
+			} else {
+				failures.add(entry.getFailure().get());
+			}
+		}
+
+		return !result.hasFailures();
+	}
+
+	/**
+	 * Registers the JAR files of all changes that are not registered but must be,
+	 * at once via {@link OsgiBundleRegistry#registerBundles(java.util.Collection)}.
+	 */
+	@SuppressWarnings("null")
+	private boolean registerAll(final Function<Change, Stage> targets, final List<StageChangeException> failures) {
+		final var jarFiles = new ArrayList<File>();
+		for (final Change change : this.changes) {
+			if (change.current.isEmpty() && targets.apply(change) != Stage.UNREGISTERED) {
+				jarFiles.add(change.jarFile.get());
+			}
+		}
+		if (jarFiles.isEmpty()) {
+			return true;
+		}
+
+		final RegistrationResult result = this.bundleRegistry.registerBundles(jarFiles);
+		boolean succeeded = !result.hasFailures();
+		failures.addAll(result.getFailures().values());
+		// each registered bundle belongs to the first change of its JAR file
+		final Map<File, RegisteredBundle> unassignedBundles = new HashMap<>(result.getRegisteredBundles());
+		for (final Change change : this.changes) {
+			final File jarFile = change.jarFile.orElse(null);
+			if (change.current.isPresent() || !result.getRegisteredBundles().containsKey(jarFile)) {
+				continue;
+			}
+			if (unassignedBundles.containsKey(jarFile)) {
+				change.current = Optional.of((RegisteredOsgiBundle) unassignedBundles.remove(jarFile));
+			} else {
+				succeeded = false;
+				failures.add(new RegistrationException(
+						new BundleAlreadyRegisteredException(jarFile, result.getRegisteredBundles().get(jarFile))));
+			}
+		}
+
+		return succeeded;
+	}
+
+	/**
+	 * Unregisters the bundles of all changes that were registered by this
+	 * transaction but must not be anymore.
+	 */
+	@SuppressWarnings("null")
+	private boolean unregisterAll(final Function<Change, Stage> targets, final List<StageChangeException> failures) {
+		boolean succeeded = true;
+		for (final Change change : this.changes) {
+			if (change.getStage() == Stage.REGISTERED && targets.apply(change) == Stage.UNREGISTERED) {
+				try {
+					change.current.get().unregister();
+					change.current = Optional.empty();
+				} catch (final UnregistrationException exception) {
+					succeeded = false;
+					failures.add(exception);
+				}
+			}
+		}
+
+		return succeeded;
+	}
+
+	private BatchResult<InstalledBundle> stopAll(final List<StartedBundle> bundles) {
+		final var stops = new ArrayList<CompletableFuture<BatchEntry<InstalledBundle>>>(bundles.size());
+		for (final StartedBundle bundle : bundles) {
+			stops.add(this.bundleRegistry.changeStageInBatch(bundle, bundle::stop, 0));
+		}
+		final var entries = new ArrayList<BatchEntry<InstalledBundle>>(bundles.size());
+		for (final CompletableFuture<BatchEntry<InstalledBundle>> stop : stops) {
+			entries.add(stop.join());
+		}
+
+		return new BatchResult<>(entries, 1);
+	}
+
+	private static void throwIfUnregistered(final Stage targetStage) throws IllegalArgumentException {
+		if (targetStage == Stage.UNREGISTERED) {
+			throw new IllegalArgumentException("Bundles can not be unregistered within a transaction.");
+		}
+	}
+
+	/**
+	 * The stage change of a single bundle within the transaction.
+	 */
+	private static class Change {
+		/**
+		 * Present if the bundle is registered by the transaction.
+		 */
+		final Optional<File> jarFile;
+		/**
+		 * The stage the bundle was in before the transaction.
+		 */
+		final Stage initialStage;
+		final Stage targetStage;
+		/**
+		 * The current instance of the bundle, empty if it is not registered.
+		 */
+		Optional<RegisteredOsgiBundle> current;
+
+		Change(final Optional<File> jarFile, final Optional<RegisteredOsgiBundle> bundle, final Stage targetStage) {
+			this.jarFile = jarFile;
+			this.current = bundle;
+			this.initialStage = getStage();
+			this.targetStage = targetStage;
+		}
+
+		@SuppressWarnings("null")
+		Stage getStage() {
+			return this.current.isPresent() ? this.current.get().getStage() : Stage.UNREGISTERED;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Tracked by the {@link OsgiBundleRegistry}, which revokes it when the leased
+ * service is unregistered.
+ *
+ * @param <T> The type of the service.
+ */
+class OsgiServiceLease<T> implements ServiceLease<T> {
+	private final T service;
+	private final ServiceReference<T> reference;
+	/**
+	 * Locks the proxy and releases the service, only on the first invocation.
+	 */
+	private final Runnable release;
+	private final OsgiBundleRegistry bundleRegistry;
+	private volatile boolean revoked = false;
+
+	/**
+	 * @param service        The proxy of the service.
+	 * @param reference      The leased service.
+	 * @param release        Ends the lease, must have no effect on further
+	 *                       invocations.
+	 * @param bundleRegistry The registry tracking the lease.
+	 */
+	OsgiServiceLease(final T service, final ServiceReference<T> reference, final Runnable release,
+			final OsgiBundleRegistry bundleRegistry) {
+		this.service = service;
+		this.reference = reference;
+		this.release = release;
+		this.bundleRegistry = bundleRegistry;
+	}
+
+	@Override
+	public T getService() {
+		return this.service;
+	}
+
+	@Override
+	public boolean isRevoked() {
+		return this.revoked;
+	}
+
+	@Override
+	public void close() {
+		this.bundleRegistry.removeLease(this);
+		this.release.run();
+	}
+
+	ServiceReference<T> getServiceReference() {
+		return this.reference;
+	}
+
+	/**
+	 * Ends the lease because the service is unregistered.
+	 */
+	void revoke() {
+		this.revoked = true;
+		this.release.run();
+	}
+}
@@ -1,13 +1,14 @@
 package org.codeturnery.osgi.toolbox.manager;
 
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.eclipse.jdt.annotation.Checks;
 import org.osgi.framework.ServiceReference;
 
-import org.codeturnery.proxies.LockableProxyFactory;
-
 /**
  * This wrapper instance hides the actual service from the calling application.
  * This is necessary because references to service objects must be handled
@@ -18,36 +19,116 @@ import org.codeturnery.proxies.LockableProxyFactory;
  * <p>
  * <strong>Do not keep the reference to the service by saving it into your own
  * objects.</strong> You will get exceptions when calling its methods after your
- * {@link Consumer} function returned.
+ * {@link Consumer} function returned. To hand results out of the call use
+ * {@link #applyService(Function)} instead, or {@link #streamService(Function)}
+ * for results consumed lazily while the service stays in use.
+ * <p>
+ * If the bundle providing the service is
+ * {@link BundleRegistry#swap(StartedBundle, RegisteredBundle, java.time.Duration)
+ * swapped}, further calls are sent to the corresponding service of the new
+ * bundle.
  *
  * @param <T>
  */
 public class OsgiServiceWrapper<T> implements ServiceWrapper<T> {
-	private final ServiceReference<T> reference;
+	private volatile Provider<T> provider;
 	private final OsgiBundleRegistry bundleRegistry;
 	private final Class<T> clazz;
+	private final ServiceProxyClass<T> proxyClass;
 
 	OsgiServiceWrapper(final ServiceReference<T> reference, final Class<T> clazz,
 			final OsgiBundleRegistry bundleRegistry) {
-		this.reference = Checks.requireNonNull(reference);
 		this.clazz = Checks.requireNonNull(clazz);
+		this.proxyClass = ServiceProxyClass.of(clazz);
 		this.bundleRegistry = Checks.requireNonNull(bundleRegistry);
+		this.provider = new Provider<>(Checks.requireNonNull(reference), bundleRegistry.getProviderCalls(reference));
 	}
 
 	@Override
 	public void callService(final Consumer<T> consumer) throws LoadServiceException {
-		final T targetService = getService();
-		final LockableProxyFactory<T> proxyFactory = new LockableProxyFactory<>(targetService, this.clazz);
+		applyService(service -> {
+			consumer.accept(service);
+			return null;
+		});
+	}
+
+	@Override
+	public <R> R applyService(final Function<T, R> function) throws LoadServiceException {
+		final Call call = beginCall();
 		try {
-			consumer.accept(proxyFactory.createProxy());
+			return function.apply(call.binding.getProxy());
 		} finally {
-			proxyFactory.lock();
-			this.bundleRegistry.releaseService(this.reference);
+			call.end();
+		}
+	}
+
+	/**
+	 * Ends the call via {@link Stream#onClose(Runnable)}, so the service is
+	 * counted as in use by the {@link ProviderCalls} of its bundle until then.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	public <R> Stream<R> streamService(final Function<T, Stream<R>> function) throws LoadServiceException {
+		final Call call = beginCall();
+		try {
+			return function.apply(call.binding.getProxy()).onClose(call::end);
+		} catch (final Throwable exception) {
+			call.end();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Begins a call like {@link #applyService(Function)}, which only ends when
+	 * the lease is closed or revoked.
+	 */
+	@Override
+	public ServiceLease<T> leaseService() throws LoadServiceException {
+		final Call call = beginCall();
+		final var lease = new OsgiServiceLease<>(call.binding.getProxy(), call.serviceReference, call::end,
+				this.bundleRegistry);
+		try {
+			this.bundleRegistry.addLease(lease);
+		} catch (final Throwable exception) {
+			call.end();
+			throw exception;
+		}
+
+		return lease;
+	}
+
+	/**
+	 * Loads the service, following redirections to the services of
+	 * {@link BundleRegistry#swap(StartedBundle, RegisteredBundle, java.time.Duration)
+	 * swapped} bundles.
+	 * 
+	 * @return The new call, which must be {@link Call#end() ended}.
+	 * @throws LoadServiceException if the service could not be loaded
+	 */
+	private Call beginCall() throws LoadServiceException {
+		Provider<T> currentProvider = this.provider;
+		while (!currentProvider.calls.enter()) {
+			final ServiceReference<T> replacementReference = this.bundleRegistry
+					.getReplacementReference(currentProvider.calls, this.clazz);
+			currentProvider = new Provider<>(replacementReference,
+					this.bundleRegistry.getProviderCalls(replacementReference));
+			this.provider = currentProvider;
+		}
+		try {
+			return new Call(currentProvider.reference, currentProvider.calls,
+					this.proxyClass.bind(getService(currentProvider.reference)));
+		} catch (final Throwable exception) {
+			currentProvider.calls.exit();
+			throw exception;
 		}
 	}
 
 	T getService() throws LoadServiceException {
-		final Optional<T> optionalService = this.bundleRegistry.loadBundleService(this.reference);
+		return getService(this.provider.reference);
+	}
+
+	private T getService(final ServiceReference<T> serviceReference) throws LoadServiceException {
+		final Optional<T> optionalService = this.bundleRegistry.loadBundleService(serviceReference);
 		if (optionalService.isEmpty()) {
 			throw new LoadServiceException(this.clazz);
 		}
@@ -55,6 +136,54 @@ public class OsgiServiceWrapper<T> implements ServiceWrapper<T> {
 	}
 
 	ServiceReference<T> getServiceReference() {
-		return this.reference;
+		return this.provider.reference;
+	}
+
+	/**
+	 * The service currently called by a wrapper together with the calls of its
+	 * OSGi bundle. The wrapper keeps the calls even after the registry forgot
+	 * them because the bundle was uninstalled, so that it still follows their
+	 * redirection to the replacement of a swapped bundle.
+	 */
+	private static class Provider<T> {
+		final ServiceReference<T> reference;
+		final ProviderCalls calls;
+
+		Provider(final ServiceReference<T> reference, final ProviderCalls calls) {
+			this.reference = reference;
+			this.calls = calls;
+		}
+	}
+
+	/**
+	 * A call on a loaded service, counted by the {@link ProviderCalls} of its
+	 * bundle until it ends.
+	 */
+	private class Call {
+		final ServiceReference<T> serviceReference;
+		final ProviderCalls calls;
+		final ServiceProxyClass<T>.Binding binding;
+		private final AtomicBoolean ended = new AtomicBoolean();
+
+		Call(final ServiceReference<T> serviceReference, final ProviderCalls calls,
+				final ServiceProxyClass<T>.Binding binding) {
+			this.serviceReference = serviceReference;
+			this.calls = calls;
+			this.binding = binding;
+		}
+
+		/**
+		 * Locks the proxy and releases the service, only on the first invocation.
+		 */
+		void end() {
+			if (this.ended.compareAndSet(false, true)) {
+				try {
+					this.binding.lock();
+					OsgiServiceWrapper.this.bundleRegistry.releaseService(this.serviceReference);
+				} finally {
+					this.calls.exit();
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,107 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * Inverted index from the name of each package to all registered bundles
+ * containing classes in that package. It allows the conflicts of a bundle to
+ * be determined by visiting only its own packages instead of comparing them
+ * with the packages of every other bundle. Packages with the same digest in
+ * two bundles are skipped without comparing their classes.
+ * <p>
+ * Bundles are referenced by their content hash instead of their instance, as
+ * the hash does not change when a bundle switches its stage.
+ * <p>
+ * Not thread safe, the owning registry is responsible for synchronization.
+ */
+class PackageIndex {
+	private final Map<String, List<PackageOwner>> ownersByPackage = new HashMap<>();
+
+	/**
+	 * @param contentHash The content hash of the bundle containing the given
+	 *                    {@code packages}.
+	 * @param packages    The packages of the bundle.
+	 */
+	void add(final String contentHash, final Collection<ClassPackage> packages) {
+		for (final ClassPackage classPackage : packages) {
+			final List<PackageOwner> owners = Checks.requireNonNull(
+					this.ownersByPackage.computeIfAbsent(classPackage.getName(), name -> new ArrayList<>(1)));
+			owners.add(new PackageOwner(contentHash, classPackage));
+		}
+	}
+
+	/**
+	 * Reverts {@link #add(String, Collection)} for the given bundle.
+	 *
+	 * @param contentHash The content hash of the bundle containing the given
+	 *                    {@code packages}.
+	 * @param packages    The packages of the bundle.
+	 */
+	void remove(final String contentHash, final Collection<ClassPackage> packages) {
+		for (final ClassPackage classPackage : packages) {
+			final String packageName = classPackage.getName();
+			if (this.ownersByPackage.containsKey(packageName)) {
+				final List<PackageOwner> owners = Checks.requireNonNull(this.ownersByPackage.get(packageName));
+				owners.removeIf(owner -> owner.contentHash.equals(contentHash));
+				if (owners.isEmpty()) {
+					this.ownersByPackage.remove(packageName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param packageName The name of a package in path notation.
+	 * @return All bundles containing classes in the given package, which may
+	 *         include the bundle asking.
+	 */
+	@SuppressWarnings("null")
+	List<PackageOwner> getOwners(final String packageName) {
+		return this.ownersByPackage.containsKey(packageName)
+				? Collections.unmodifiableList(this.ownersByPackage.get(packageName))
+				: Collections.emptyList();
+	}
+
+	/**
+	 * @return A copy of the owners of all packages currently contained in more
+	 *         than one bundle, which can be processed by other threads.
+	 */
+	List<List<PackageOwner>> getSharedPackages() {
+		final var sharedPackages = new ArrayList<List<PackageOwner>>();
+		for (final List<PackageOwner> owners : this.ownersByPackage.values()) {
+			if (owners.size() > 1) {
+				sharedPackages.add(Checks.requireNonNull(List.copyOf(owners)));
+			}
+		}
+
+		return sharedPackages;
+	}
+
+	/**
+	 * A bundle containing classes in a package.
+	 */
+	static class PackageOwner {
+		private final String contentHash;
+		private final ClassPackage classPackage;
+
+		PackageOwner(final String contentHash, final ClassPackage classPackage) {
+			this.contentHash = contentHash;
+			this.classPackage = classPackage;
+		}
+
+		String getContentHash() {
+			return this.contentHash;
+		}
+
+		ClassPackage getPackage() {
+			return this.classPackage;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * Counts the {@link OsgiServiceWrapper#callService(java.util.function.Consumer)
+ * calls} currently running on the services of one OSGi bundle, shared by all
+ * wrappers of its services.
+ * <p>
+ * Once the bundle is {@link #redirect(long) redirected} to a replacement, new
+ * calls are rejected so that the wrappers switch to the services of the
+ * replacement, while the registry {@link #awaitDrained(Duration) waits} for the
+ * running calls to finish.
+ */
+class ProviderCalls {
+	private final AtomicInteger runningCalls = new AtomicInteger();
+	/**
+	 * The id of the OSGi bundle new calls are sent to instead.
+	 */
+	private volatile Optional<Long> replacementBundleId = Checks.requireNonNull(Optional.empty());
+
+	/**
+	 * Counts a new call, unless the bundle was redirected. The call is counted
+	 * before the redirection is checked, so that a concurrent
+	 * {@link #awaitDrained(Duration)} either waits for the call or the call sees
+	 * the redirection.
+	 *
+	 * @return {@code true} if the call was counted and must be finished via
+	 *         {@link #exit()}, {@code false} if the call must be sent to the
+	 *         {@link #getReplacementBundleId() replacement} instead.
+	 */
+	boolean enter() {
+		this.runningCalls.incrementAndGet();
+		if (this.replacementBundleId.isPresent()) {
+			exit();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Marks a call counted by {@link #enter()} as finished.
+	 */
+	void exit() {
+		if (this.runningCalls.decrementAndGet() == 0 && this.replacementBundleId.isPresent()) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @param bundleId The id of the OSGi bundle to send all further calls to.
+	 */
+	@SuppressWarnings("null")
+	void redirect(final long bundleId) {
+		this.replacementBundleId = Optional.of(Long.valueOf(bundleId));
+	}
+
+	Optional<Long> getReplacementBundleId() {
+		return this.replacementBundleId;
+	}
+
+	/**
+	 * Waits until all counted calls finished. Only useful after
+	 * {@link #redirect(long)}, as new calls may be counted otherwise.
+	 *
+	 * @param timeout The maximum duration to wait.
+	 * @throws InterruptedException
+	 * @throws TimeoutException     if calls were still running after the given
+	 *                              {@code timeout}
+	 */
+	synchronized void awaitDrained(final Duration timeout) throws InterruptedException, TimeoutException {
+		final long deadline = System.nanoTime() + timeout.toNanos();
+		while (this.runningCalls.get() > 0) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException(this.runningCalls.get() + " calls were still running.");
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+	}
+}
@@ -2,10 +2,12 @@ package org.codeturnery.osgi.toolbox.manager;
 
 import java.io.File;
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.jar.JarEntry;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * If this instance hasn't been expired it represents a bundle that is made
@@ -28,9 +30,26 @@ import java.util.jar.JarEntry;
  */
 public interface RegisteredBundle extends BundleInterface {
 
+	/**
+	 * @return An identifier of this bundle, unique within its registry. It is
+	 *         kept by the instances returned when the bundle changes its stage
+	 *         and is unrelated to the bundle id assigned by the OSGi framework.
+	 */
+	public long getId();
+
 	public URI getUri();
 
-	public Map<String, JarEntry> getClassEntries();
+	/**
+	 * @return The class files contained in the JAR file of this bundle, mapped by
+	 *         their path inside the JAR file.
+	 */
+	public Map<String, ClassEntry> getClassEntries();
+
+	/**
+	 * @return The hex encoded SHA-256 hash of the JAR file of this bundle at the
+	 *         time it was registered.
+	 */
+	public String getContentHash();
 
 	public boolean isRegisteredFrom(final File jarFile);
 
@@ -47,6 +66,28 @@ public interface RegisteredBundle extends BundleInterface {
 	 */
 	public InstalledBundle install() throws InstallationException;
 
+	/**
+	 * Like {@link #install()} but runs on the lifecycle executor of the registry
+	 * instead of the calling thread.
+	 * 
+	 * @return The future new instance, completed exceptionally with an
+	 *         {@link InstallationException} if a problem occurred while installing
+	 *         the bundle.
+	 */
+	public CompletableFuture<InstalledBundle> installAsync();
+
+	/**
+	 * Like {@link #installAsync()} but gives up waiting after the given
+	 * {@code timeout}.
+	 * 
+	 * @param timeout The maximum duration of the installation.
+	 * @return The future new instance, completed exceptionally with a
+	 *         {@link java.util.concurrent.TimeoutException} if the installation
+	 *         did not finish in time. The installation is not aborted in this case
+	 *         and may still succeed later on.
+	 */
+	public CompletableFuture<InstalledBundle> installAsync(final Duration timeout);
+
 	/**
 	 * The current instance will be set as expired and must not be used anymore.
 	 * 
@@ -54,6 +95,17 @@ public interface RegisteredBundle extends BundleInterface {
 	 */
 	public void unregister() throws UnregistrationException;
 
+	/**
+	 * Like {@link #unregister()} but if this bundle is installed, it and all
+	 * bundles depending on it are uninstalled first via
+	 * {@link InstalledBundle#uninstallCascading()}. The bundles depending on it
+	 * stay registered.
+	 * 
+	 * @return The outcome for this bundle first, whose result is its expired
+	 *         instance, followed by the outcomes for the bundles depending on it.
+	 */
+	public BatchResult<RegisteredBundle> unregisterCascading();
+
 	/**
 	 * Two possibilities how this bundle may conflict with any other currently
 	 * {@link Stage#REGISTERED} bundle are checked:
@@ -62,11 +114,22 @@ public interface RegisteredBundle extends BundleInterface {
 	 * <li>if they both define classes that match in their fully qualified class
 	 * name but not in their CRC content checksum</li>
 	 * </ol>
+	 * Bundles with the same {@link #getContentHash() content hash} only conflict
+	 * via their symbolic name, their classes are not compared.
 	 * 
 	 * @return All (at the moment of invocation non-expired) bundles that have
 	 *         potential to conflict with the current bundle.
 	 */
 	public Set<BundleConflict> getConflicts();
 
+	/**
+	 * Checks the same conflicts as {@link #getConflicts()}, but only against the
+	 * given bundle, which does not need to be registered in the same registry.
+	 * 
+	 * @param bundle The bundle to compare this bundle with.
+	 * @return The conflict with the given {@code bundle}, if any.
+	 */
+	public Optional<BundleConflict> getConflict(final RegisteredBundle bundle);
+
 	public String getSymbolicNameWithVersion();
 }
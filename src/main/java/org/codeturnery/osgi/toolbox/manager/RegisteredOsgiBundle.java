@@ -2,23 +2,22 @@ package org.codeturnery.osgi.toolbox.manager;
 
 import java.io.File;
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 
 import org.eclipse.jdt.annotation.Checks;
-import org.eclipse.jdt.annotation.Nullable;
 
 class RegisteredOsgiBundle implements RegisteredBundle {
 	private static final Attributes.Name SYMBOLIC_NAME = new Attributes.Name("Bundle-SymbolicName"); //$NON-NLS-1$
@@ -29,50 +28,94 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 	 */
 	protected final OsgiBundleRegistry bundleRegistry;
 
-	private Optional<Expiration> expiration = Checks.requireNonNull(Optional.empty());
+	private volatile Optional<Expiration> expiration = Checks.requireNonNull(Optional.empty());
 
 	/**
-	 * File URI (derived from the initial JAR path). Needed to install the bundle.
+	 * File URI (derived from the JAR path the bundle was registered or last
+	 * updated from). Needed to install the bundle.
 	 */
 	protected final URI uri;
+	/**
+	 * The location of the bundle in the OSGi framework. Initially derived from
+	 * the {@link #uri} and kept when the bundle is updated from another JAR
+	 * file, as the framework identifies the bundle by it.
+	 */
+	protected final String location;
 	/**
 	 * The manifest information parsed from the <code>META-INF/MANIFEST.MF</code> in
 	 * the bundles JAR file.
 	 */
 	private final Manifest manifest;
 	/**
-	 * The class names defined by the bundles JAR file.
+	 * The class names defined by the bundles JAR file, in a compact immutable
+	 * table.
+	 */
+	protected final ClassEntryTable classEntries;
+	/**
+	 * The hashes of the keys in {@link #classEntries}, to quickly rule out
+	 * conflicts with other bundles.
+	 */
+	private final ClassPathHashes classPathHashes;
+	/**
+	 * The class entries grouped by their package, mapped by the package name.
 	 */
-	private final Map<String, JarEntry> classEntries;
+	protected final Map<String, ClassPackage> packages;
+	/**
+	 * The root digest over the digests of all {@link #packages}.
+	 */
+	private final byte[] classesDigest;
+	/**
+	 * The hex encoded SHA-256 hash of the bundles JAR file. Used to detect
+	 * duplicated JAR files.
+	 */
+	protected final String contentHash;
 
-	private final Version version;
+	/**
+	 * Read from the manifest once, as it is used to index this bundle in its
+	 * registry.
+	 */
+	protected final String symbolicName;
+	protected final Version version;
 	private final Instant registrationTime;
+	/**
+	 * Assigned by the registry when the bundle is scanned and kept across all
+	 * stages.
+	 */
+	protected final long id;
 
+	/**
+	 * Scans the given {@code jarFile} using the {@link BundleScanner} of the given
+	 * {@code bundleRegistry} but does not add the resulting instance to
+	 * the given {@code bundleRegistry}. This is left to the registry, which allows
+	 * multiple JAR files to be scanned concurrently.
+	 * 
+	 * @param jarFile
+	 * @param bundleRegistry
+	 * @throws RegistrationException
+	 */
 	RegisteredOsgiBundle(final File jarFile, final OsgiBundleRegistry bundleRegistry) throws RegistrationException {
 		try {
 			if (!jarFile.canRead()) {
 				throw new RegistrationException("Can't read file in path: " + jarFile.getAbsolutePath());
 			}
-			try (final JarFile jar = new JarFile(jarFile, true);) {
-				this.manifest = Checks.requireNonNull(jar.getManifest());
-				this.classEntries = determineClassEntries(jar);
-			}
+			final BundleScan scan = bundleRegistry.bundleScanner.scan(jarFile);
+			this.manifest = scan.getManifest();
+			this.classEntries = scan.getClassEntries();
+			this.contentHash = scan.getContentHash();
+			this.classPathHashes = ClassPathHashes.of(this.classEntries);
+			this.packages = ClassPackage.of(this.classEntries);
+			this.classesDigest = ClassPackage.digest(Checks.requireNonNull(this.packages.values()));
 			throwIfInvalid();
 			this.uri = Checks.requireNonNull(jarFile.getAbsoluteFile().toURI());
-			this.version = new Version(
-					getNameAttribute(Checks.requireNonNull(this.manifest.getMainAttributes()), VERSION));
+			this.location = Checks.requireNonNull(this.uri.toString());
+			final Attributes mainAttributes = Checks.requireNonNull(this.manifest.getMainAttributes());
+			this.symbolicName = getNameAttribute(mainAttributes, SYMBOLIC_NAME);
+			this.version = new Version(getNameAttribute(mainAttributes, VERSION));
 			// TODO: set up a listener watching the file for changes
 			// TODO: check readability/file type
 			this.registrationTime = Checks.requireNonNull(Instant.now());
 			this.bundleRegistry = bundleRegistry;
-			
-			// check if JAR was already registered
-			// TODO: check via checksum additionally or instead of path
-			final Optional<RegisteredOsgiBundle> existingBundle = bundleRegistry.getBundleRegisteredFrom(jarFile);
-			if (existingBundle.isPresent()) {
-				throw new BundleAlreadyRegisteredException(jarFile, existingBundle.get());
-			}
-			bundleRegistry.bundles.add(this);
+			this.id = bundleRegistry.nextBundleId();
 		} catch (final RegistrationException exception) {
 			throw exception;
 		} catch (final Throwable exception) {
@@ -82,23 +125,69 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 
 	protected RegisteredOsgiBundle(final RegisteredOsgiBundle bundle) {
 		this.uri = bundle.uri;
+		// a bundle updated from another JAR file is installed from that file again
+		// after it was uninstalled
+		this.location = this instanceof InstalledBundle ? bundle.location : Checks.requireNonNull(this.uri.toString());
 		this.manifest = bundle.manifest;
 		this.classEntries = bundle.classEntries;
+		this.contentHash = bundle.contentHash;
+		this.classPathHashes = bundle.classPathHashes;
+		this.packages = bundle.packages;
+		this.classesDigest = bundle.classesDigest;
+		this.symbolicName = bundle.symbolicName;
 		this.version = bundle.version;
 		this.registrationTime = bundle.registrationTime;
 		this.bundleRegistry = bundle.bundleRegistry;
+		this.id = bundle.id;
+	}
+
+	/**
+	 * Keeps the identity of the given {@code bundle} (its id and location in the
+	 * OSGi framework) but takes everything read from the JAR file from the given
+	 * {@code content}.
+	 * 
+	 * @param bundle  The bundle to update.
+	 * @param content The new JAR file of the bundle, scanned but not added to the
+	 *                registry.
+	 */
+	protected RegisteredOsgiBundle(final RegisteredOsgiBundle bundle, final RegisteredOsgiBundle content) {
+		this.uri = content.uri;
+		this.location = bundle.location;
+		this.manifest = content.manifest;
+		this.classEntries = content.classEntries;
+		this.contentHash = content.contentHash;
+		this.classPathHashes = content.classPathHashes;
+		this.packages = content.packages;
+		this.classesDigest = content.classesDigest;
+		this.symbolicName = content.symbolicName;
+		this.version = content.version;
+		this.registrationTime = bundle.registrationTime;
+		this.bundleRegistry = bundle.bundleRegistry;
+		this.id = bundle.id;
 	}
 
 	@Override
-	public Map<String, JarEntry> getClassEntries() throws ExpiredException {
+	public Map<String, ClassEntry> getClassEntries() throws ExpiredException {
 		throwIfExpired();
 		return this.classEntries;
 	}
 
+	@Override
+	public String getContentHash() throws ExpiredException {
+		throwIfExpired();
+		return this.contentHash;
+	}
+
+	@Override
+	public long getId() throws ExpiredException {
+		throwIfExpired();
+		return this.id;
+	}
+
 	@Override
 	public String getSymbolicName() throws ExpiredException {
 		throwIfExpired();
-		return getNameAttribute(Checks.requireNonNull(this.manifest.getMainAttributes()), SYMBOLIC_NAME);
+		return this.symbolicName;
 	}
 
 	@Override
@@ -146,15 +235,18 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 
 	@Override
 	public InstalledBundle install() throws InstallationException {
+		final Lock lock = this.bundleRegistry.bundleLocks.lock(this.id);
 		try {
 			throwIfExpired();
 			if (!this.getStage().equals(Stage.REGISTERED)) {
 				throw new InstallationException("The bundle is already installed.");
 			}
-			expire(Stage.INSTALLED);
 			// null as InputStream lets the Framework guess how to access the URI instead of
 			// simply reading the otherwise provided InputStream
-			this.bundleRegistry.getBundleContext().installBundle(this.uri.toString(), null);
+			this.bundleRegistry.getBundleContext().installBundle(this.location, null);
+			// only expired after the framework succeeded, so that a failed installation
+			// leaves this instance usable
+			expire(Stage.INSTALLED);
 			final var installedBundle = new InstalledOsgiBundle(this);
 			this.bundleRegistry.replaceBundleInstances(this, installedBundle);
 
@@ -163,15 +255,27 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 			throw exception;
 		} catch (final Throwable exception) {
 			throw new InstallationException(exception);
+		} finally {
+			lock.unlock();
 		}
 	}
 
+	@Override
+	public CompletableFuture<InstalledBundle> installAsync() {
+		return this.bundleRegistry.changeStageAsync(this::install, Checks.requireNonNull(Optional.empty()));
+	}
+
+	@Override
+	public CompletableFuture<InstalledBundle> installAsync(final Duration timeout) {
+		return this.bundleRegistry.changeStageAsync(this::install, Checks.requireNonNull(Optional.of(timeout)));
+	}
+
 	@Override
 	public void unregister() throws UnregistrationException {
+		final Lock lock = this.bundleRegistry.bundleLocks.lock(this.id);
 		try {
 			throwIfExpired();
 			if (!this.getStage().equals(Stage.REGISTERED)) {
-				// TODO: automatically stop if already started, automatically uninstall if installed, update documentation
 				throw new UnregistrationException(
 						"The bundle must be stopped and uninstalled before it can be unregistered.");
 			}
@@ -182,27 +286,91 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 			throw exception;
 		} catch (final Throwable exception) {
 			throw new UnregistrationException(exception);
+		} finally {
+			lock.unlock();
 		}
 	}
 
+	@Override
+	public BatchResult<RegisteredBundle> unregisterCascading() {
+		return this.bundleRegistry.unregisterCascading(this);
+	}
+
+	/**
+	 * Visits only the packages of this bundle and looks up other bundles
+	 * containing the same packages in the {@link PackageIndex} of the registry.
+	 * Thus the costs depend on the number of classes in this bundle but not on
+	 * the number of classes in all other bundles. Packages with the same digest
+	 * in both bundles are skipped without comparing their classes.
+	 */
 	@Override
 	public Set<BundleConflict> getConflicts() {
 		throwIfExpired();
-		final String symbolicName = getSymbolicName();
-		final var conflicts = new HashSet<BundleConflict>();
-		for (final RegisteredBundle bundle : this.bundleRegistry.getBundles()) {
-			if (this == bundle) {
-				continue;
+		this.bundleRegistry.registryLock.readLock().lock();
+		try {
+			final var conflictingPackagesByHash = new HashMap<String, Map<String, Set<String>>>();
+			for (final ClassPackage classPackage : this.packages.values()) {
+				for (final PackageIndex.PackageOwner owner : this.bundleRegistry.packageIndex
+						.getOwners(classPackage.getName())) {
+					// identical JAR files can only conflict via their symbolic name
+					if (this.contentHash.equals(owner.getContentHash())) {
+						continue;
+					}
+					final List<String> conflictingClasses = classPackage.getConflictingClasses(owner.getPackage());
+					if (!conflictingClasses.isEmpty()) {
+						conflictingPackagesByHash.computeIfAbsent(owner.getContentHash(), hash -> new HashMap<>())
+								.put(classPackage.getName(), new HashSet<>(conflictingClasses));
+					}
+				}
+			}
+
+			// only bundles sharing classes or the symbolic name can conflict, both are
+			// looked up via the indexes of the registry instead of visiting all bundles
+			final var conflicts = new HashSet<BundleConflict>();
+			for (final RegisteredOsgiBundle bundle : this.bundleRegistry.bundleIndex
+					.getBySymbolicName(this.symbolicName)) {
+				if (this.id != bundle.id) {
+					final Map<String, Set<String>> conflictingPackages = conflictingPackagesByHash
+							.containsKey(bundle.contentHash)
+									? Checks.requireNonNull(conflictingPackagesByHash.remove(bundle.contentHash))
+									: Checks.requireNonNull(Map.of());
+					conflicts.add(new BundleConflict(bundle, conflictingPackages, true));
+				}
 			}
-			Set<String> conflictingClasses = getConflictingClassPaths(bundle);
-			conflictingClasses = removeMatchingCrcContent(conflictingClasses, bundle);
-			final boolean symbolicNameConflict = symbolicName.equals(bundle.getSymbolicName());
-			if (!conflictingClasses.isEmpty() || symbolicNameConflict) {
-				conflicts.add(new BundleConflict(bundle, conflictingClasses, symbolicNameConflict));
+			for (final Map.Entry<String, Map<String, Set<String>>> entry : conflictingPackagesByHash.entrySet()) {
+				final RegisteredOsgiBundle bundle = this.bundleRegistry.bundleIndex
+						.getByContentHash(Checks.requireNonNull(entry.getKey())).orElseThrow();
+				conflicts.add(new BundleConflict(bundle, Checks.requireNonNull(entry.getValue()), false));
 			}
+
+			return conflicts;
+		} finally {
+			this.bundleRegistry.registryLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Compares the packages of both bundles directly. Pairs of bundles that
+	 * define the same classes or do not define any class path in common are
+	 * ruled out via their root digest and {@link ClassPathHashes}, packages with
+	 * the same digest in both bundles are skipped.
+	 */
+	@Override
+	public Optional<BundleConflict> getConflict(final RegisteredBundle bundle) throws ExpiredException {
+		throwIfExpired();
+		if (this == bundle) {
+			return Checks.requireNonNull(Optional.empty());
+		}
+		final Map<String, Set<String>> conflictingPackages = bundle instanceof RegisteredOsgiBundle
+				? getConflictingPackages((RegisteredOsgiBundle) bundle)
+				: new BundleConflict(bundle, removeMatchingCrcContent(getConflictingClassPaths(bundle), bundle),
+						false).getConflictingPackages();
+		final boolean symbolicNameConflict = getSymbolicName().equals(bundle.getSymbolicName());
+		if (conflictingPackages.isEmpty() && !symbolicNameConflict) {
+			return Checks.requireNonNull(Optional.empty());
 		}
 
-		return conflicts;
+		return Checks.requireNonNull(Optional.of(new BundleConflict(bundle, conflictingPackages, symbolicNameConflict)));
 	}
 
 	@Override
@@ -216,6 +384,40 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 		}
 	}
 
+	/**
+	 * Determines the conflicting classes of this bundle and the given one package
+	 * by package, descending only into packages with different digests.
+	 * 
+	 * @param bundle The bundle to compare this instance to.
+	 * @return The conflicting class paths, mapped by their package.
+	 * @throws ExpiredException
+	 */
+	protected Map<String, Set<String>> getConflictingPackages(final RegisteredOsgiBundle bundle)
+			throws ExpiredException {
+		throwIfExpired();
+		bundle.throwIfExpired();
+		final var conflictingPackages = new HashMap<String, Set<String>>();
+		// identical JAR files or class sets can only conflict via their symbolic name
+		if (this.contentHash.equals(bundle.contentHash) || Arrays.equals(this.classesDigest, bundle.classesDigest)
+				|| !this.classPathHashes.intersects(bundle.classPathHashes)) {
+			return conflictingPackages;
+		}
+		final boolean thisIsSmaller = this.packages.size() <= bundle.packages.size();
+		final Map<String, ClassPackage> smaller = thisIsSmaller ? this.packages : bundle.packages;
+		final Map<String, ClassPackage> larger = thisIsSmaller ? bundle.packages : this.packages;
+		for (final ClassPackage classPackage : smaller.values()) {
+			if (larger.containsKey(classPackage.getName())) {
+				final List<String> conflictingClasses = classPackage
+						.getConflictingClasses(Checks.requireNonNull(larger.get(classPackage.getName())));
+				if (!conflictingClasses.isEmpty()) {
+					conflictingPackages.put(classPackage.getName(), new HashSet<>(conflictingClasses));
+				}
+			}
+		}
+
+		return conflictingPackages;
+	}
+
 	/**
 	 * Removes entries from the given {@code classPaths} which have the same content
 	 * CRC checksum in both bundles according to the JAR file.
@@ -226,8 +428,8 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 	 */
 	protected Set<String> removeMatchingCrcContent(final Set<String> classPaths, final RegisteredBundle bundle) {
 		return classPaths.stream().filter(classPath -> {
-			final JarEntry thisEntry = this.classEntries.get(classPath);
-			final JarEntry thatEntry = bundle.getClassEntries().get(classPath);
+			final ClassEntry thisEntry = Checks.requireNonNull(this.classEntries.get(classPath));
+			final ClassEntry thatEntry = bundle.getClassEntries().get(classPath);
 
 			return thisEntry.getCrc() != thatEntry.getCrc();
 		}).collect(Collectors.toSet());
@@ -243,27 +445,22 @@ class RegisteredOsgiBundle implements RegisteredBundle {
 	 */
 	protected Set<String> getConflictingClassPaths(final RegisteredBundle bundle) throws ExpiredException {
 		throwIfExpired();
-		final var resultSet = new HashSet<>(this.classEntries.keySet());
-		resultSet.retainAll(bundle.getClassEntries().keySet());
-
-		return resultSet;
-	}
-
-	@SuppressWarnings({ "null", "static-method" })
-	protected Map<String, JarEntry> determineClassEntries(final JarFile jar) {
-		final var foundClassNames = new HashMap<String, JarEntry>();
-		final Enumeration<@Nullable JarEntry> e = jar.entries();
-		while (e.hasMoreElements()) {
-			final JarEntry jarEntry = Checks.requireNonNull(e.nextElement());
-			final String className = jarEntry.getName();
-			if (className.endsWith(".class")) { //$NON-NLS-1$
-				final @Nullable JarEntry previousJarEntry = foundClassNames.put(className, jarEntry);
-				if (previousJarEntry != null) {
-					throw new IllegalStateException(className);
-				}
+		final Map<String, ClassEntry> otherClassEntries = bundle.getClassEntries();
+		if (bundle instanceof RegisteredOsgiBundle
+				&& !this.classPathHashes.intersects(((RegisteredOsgiBundle) bundle).classPathHashes)) {
+			return Checks.requireNonNull(Set.of());
+		}
+		final boolean thisIsSmaller = this.classEntries.size() <= otherClassEntries.size();
+		final Map<String, ClassEntry> smaller = thisIsSmaller ? this.classEntries : otherClassEntries;
+		final Map<String, ClassEntry> larger = thisIsSmaller ? otherClassEntries : this.classEntries;
+		final var resultSet = new HashSet<String>();
+		for (final String classPath : smaller.keySet()) {
+			if (larger.containsKey(classPath)) {
+				resultSet.add(classPath);
 			}
 		}
-		return foundClassNames;
+
+		return resultSet;
 	}
 
 	/**
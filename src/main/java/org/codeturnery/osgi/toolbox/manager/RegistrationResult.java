@@ -0,0 +1,45 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * The outcome of registering multiple JAR files at once via
+ * {@link BundleRegistry#registerBundles(java.util.Collection)}.
+ * <p>
+ * Each given file is either mapped to the bundle registered from it or to the
+ * exception that prevented its registration, never both.
+ */
+public class RegistrationResult {
+	private final Map<File, RegisteredBundle> registeredBundles;
+	private final Map<File, RegistrationException> failures;
+
+	RegistrationResult(final Map<File, RegisteredBundle> registeredBundles,
+			final Map<File, RegistrationException> failures) {
+		this.registeredBundles = Checks.requireNonNull(Collections.unmodifiableMap(registeredBundles));
+		this.failures = Checks.requireNonNull(Collections.unmodifiableMap(failures));
+	}
+
+	/**
+	 * @return The bundles that were registered, mapped to the file they were
+	 *         registered from, in the order the files were given.
+	 */
+	public Map<File, RegisteredBundle> getRegisteredBundles() {
+		return this.registeredBundles;
+	}
+
+	/**
+	 * @return The files that could not be registered, mapped to the reason why,
+	 *         in the order the files were given.
+	 */
+	public Map<File, RegistrationException> getFailures() {
+		return this.failures;
+	}
+
+	public boolean hasFailures() {
+		return !this.failures.isEmpty();
+	}
+}
@@ -0,0 +1,168 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * The immutable state of a {@link BundleRegistry} at one point in time, as
+ * returned by {@link BundleRegistry#getSnapshot()}.
+ * <p>
+ * A new snapshot with an incremented generation is published every time
+ * bundles are added to or removed from the registry or change their stage.
+ * Existing snapshots are never modified, so they can be read from any thread
+ * without locking. The bundles contained in an older snapshot may have expired
+ * in the meantime.
+ */
+public class RegistrySnapshot {
+	private final long generation;
+	private final List<RegisteredBundle> bundles;
+	/**
+	 * The {@link RegisteredBundle#getId() ids} of the {@link #bundles}, captured
+	 * when this snapshot was created because expired bundles don't provide them
+	 * anymore.
+	 */
+	private final long[] ids;
+
+	RegistrySnapshot(final long generation, final List<? extends RegisteredBundle> bundles, final long[] ids) {
+		this.generation = generation;
+		this.bundles = Checks.requireNonNull(List.copyOf(bundles));
+		this.ids = ids;
+	}
+
+	/**
+	 * @return The number of times the registry changed before this snapshot was
+	 *         taken, starting with {@code 0} for a new registry. Registering
+	 *         multiple bundles at once counts as a single change.
+	 */
+	public long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * @return The bundles of the registry at the time this snapshot was taken,
+	 *         sorted by their indices. Not modifiable.
+	 */
+	public List<RegisteredBundle> getBundles() {
+		return this.bundles;
+	}
+
+	/**
+	 * Determines how the registry changed between the given snapshot and this
+	 * one.
+	 *
+	 * @param previous An older snapshot of the same registry.
+	 * @return The bundles added, removed or replaced by a new instance due to a
+	 *         stage change.
+	 */
+	@SuppressWarnings("null")
+	public Diff diff(final RegistrySnapshot previous) {
+		final var previousBundles = new HashMap<Long, RegisteredBundle>(previous.ids.length * 4 / 3 + 1);
+		for (int i = 0; i < previous.ids.length; i++) {
+			previousBundles.put(Long.valueOf(previous.ids[i]), previous.bundles.get(i));
+		}
+		final var added = new ArrayList<RegisteredBundle>();
+		final var replaced = new ArrayList<RegisteredBundle>();
+		for (int i = 0; i < this.ids.length; i++) {
+			final RegisteredBundle bundle = this.bundles.get(i);
+			final Long id = Long.valueOf(this.ids[i]);
+			if (!previousBundles.containsKey(id)) {
+				added.add(bundle);
+			} else if (previousBundles.remove(id) != bundle) {
+				replaced.add(bundle);
+			}
+		}
+		final var removed = new ArrayList<RegisteredBundle>();
+		for (int i = 0; i < previous.ids.length; i++) {
+			if (previousBundles.containsKey(Long.valueOf(previous.ids[i]))) {
+				removed.add(previous.bundles.get(i));
+			}
+		}
+
+		return new Diff(previous.generation, this.generation, added, removed, replaced);
+	}
+
+	@Override
+	public String toString() {
+		return "Generation " + this.generation + ": " + Arrays.toString(this.ids); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * The changes between two snapshots of the same registry.
+	 */
+	public static class Diff {
+		private final long fromGeneration;
+		private final long toGeneration;
+		private final List<RegisteredBundle> added;
+		private final List<RegisteredBundle> removed;
+		private final List<RegisteredBundle> replaced;
+
+		Diff(final long fromGeneration, final long toGeneration, final List<RegisteredBundle> added,
+				final List<RegisteredBundle> removed, final List<RegisteredBundle> replaced) {
+			this.fromGeneration = fromGeneration;
+			this.toGeneration = toGeneration;
+			this.added = Checks.requireNonNull(Collections.unmodifiableList(added));
+			this.removed = Checks.requireNonNull(Collections.unmodifiableList(removed));
+			this.replaced = Checks.requireNonNull(Collections.unmodifiableList(replaced));
+		}
+
+		public long getFromGeneration() {
+			return this.fromGeneration;
+		}
+
+		public long getToGeneration() {
+			return this.toGeneration;
+		}
+
+		/**
+		 * @return The bundles only contained in the newer snapshot.
+		 */
+		public List<RegisteredBundle> getAdded() {
+			return this.added;
+		}
+
+		/**
+		 * @return The bundles only contained in the older snapshot, which are
+		 *         expired by now.
+		 */
+		public List<RegisteredBundle> getRemoved() {
+			return this.removed;
+		}
+
+		/**
+		 * @return The instances in the newer snapshot of the bundles that changed
+		 *         their stage in between.
+		 */
+		public List<RegisteredBundle> getReplaced() {
+			return this.replaced;
+		}
+
+		public boolean isEmpty() {
+			return this.added.isEmpty() && this.removed.isEmpty() && this.replaced.isEmpty();
+		}
+	}
+
+	/**
+	 * @return The snapshot of an empty registry.
+	 */
+	static RegistrySnapshot empty() {
+		return new RegistrySnapshot(0, Checks.requireNonNull(List.of()), new long[0]);
+	}
+
+	/**
+	 * @return A snapshot of the given bundles with the generation following this
+	 *         one.
+	 */
+	RegistrySnapshot next(final List<RegisteredOsgiBundle> bundles) {
+		final long[] nextIds = new long[bundles.size()];
+		for (int i = 0; i < nextIds.length; i++) {
+			nextIds[i] = bundles.get(i).id;
+		}
+
+		return new RegistrySnapshot(this.generation + 1, bundles, nextIds);
+	}
+}
@@ -0,0 +1,152 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The wrappers of all services of a single type, looked up once and kept up to
+ * date via the {@link ServiceEvent}s of the OSGi framework afterwards. Services
+ * registered or unregistered only add or remove their own wrapper, all other
+ * wrappers are kept.
+ * <p>
+ * Like {@link BundleContext#getServiceReferences(Class, String)}, only services
+ * assignable to the given type are contained, i.e. whose type was loaded by the
+ * same class loader, as {@link ServiceListener}s are only notified about such
+ * services.
+ *
+ * @param <T> The type of the services.
+ */
+class ServiceCache<T> implements ServiceListener {
+	private final Class<T> type;
+	private final OsgiBundleRegistry bundleRegistry;
+	/**
+	 * The wrappers by the reference they were created for, which may differ
+	 * from their current one after a
+	 * {@link OsgiBundleRegistry#swap(StartedBundle, RegisteredBundle, java.time.Duration)
+	 * swap}. Guarded by this instance.
+	 */
+	private final Map<ServiceReference<?>, OsgiServiceWrapper<T>> wrappers = new LinkedHashMap<>();
+	/**
+	 * An unmodifiable copy of the {@link #wrappers}, replaced on each change.
+	 */
+	private volatile List<OsgiServiceWrapper<T>> wrapperList = Checks.requireNonNull(List.of());
+
+	private ServiceCache(final Class<T> type, final OsgiBundleRegistry bundleRegistry) {
+		this.type = type;
+		this.bundleRegistry = bundleRegistry;
+	}
+
+	/**
+	 * Starts listening for services of the given {@code type} before looking up
+	 * the services already registered, so that no change is missed in between.
+	 *
+	 * @param <T>            The type of the services.
+	 * @param type           The type of the services.
+	 * @param bundleRegistry The registry to create the wrappers with.
+	 * @return A cache containing all services of the given {@code type}
+	 *         currently registered.
+	 */
+	static <T> ServiceCache<T> open(final Class<T> type, final OsgiBundleRegistry bundleRegistry) {
+		final BundleContext bundleContext = bundleRegistry.getBundleContext();
+		final var serviceCache = new ServiceCache<>(type, bundleRegistry);
+		try {
+			bundleContext.addServiceListener(serviceCache,
+					"(" + Constants.OBJECTCLASS + "=" + type.getName() + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			synchronized (serviceCache) {
+				for (final ServiceReference<T> reference : bundleContext.getServiceReferences(type, null)) {
+					serviceCache.add(Checks.requireNonNull(reference));
+				}
+				serviceCache.publish();
+			}
+
+			return serviceCache;
+		} catch (final InvalidSyntaxException exception) {
+			bundleContext.removeServiceListener(serviceCache);
+			throw new IllegalArgumentException(exception);
+		} catch (final RuntimeException exception) {
+			bundleContext.removeServiceListener(serviceCache);
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return The wrappers of all services currently registered, as unmodifiable
+	 *         list. Wrappers of services still registered are the same instances
+	 *         on each invocation.
+	 */
+	List<OsgiServiceWrapper<T>> getWrappers() {
+		return this.wrapperList;
+	}
+
+	/**
+	 * Stops listening for services. The wrappers are kept but not updated
+	 * anymore.
+	 */
+	void close() {
+		try {
+			this.bundleRegistry.getBundleContext().removeServiceListener(this);
+		} catch (@SuppressWarnings("unused") final IllegalArgumentException | IllegalStateException exception) {
+			// the framework is already stopping, which removes all listeners anyway
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized void serviceChanged(final @Nullable ServiceEvent event) {
+		final ServiceEvent serviceEvent = Checks.requireNonNull(event);
+		final ServiceReference<?> reference = serviceEvent.getServiceReference();
+		switch (serviceEvent.getType()) {
+		case ServiceEvent.REGISTERED:
+			add((ServiceReference<T>) Checks.requireNonNull(reference));
+			break;
+		case ServiceEvent.UNREGISTERING:
+		case ServiceEvent.MODIFIED_ENDMATCH:
+			this.wrappers.remove(reference);
+			break;
+		default:
+			return;
+		}
+		publish();
+	}
+
+	/**
+	 * Removes the wrappers of the services of the given OSGi bundle, once its
+	 * calls were redirected to a replacement by a
+	 * {@link OsgiBundleRegistry#swap(StartedBundle, RegisteredBundle, java.time.Duration)
+	 * swap}. The services of the replacement have wrappers of their own, which
+	 * would otherwise be contained twice, as the removed wrappers keep calling
+	 * them for their remaining holders.
+	 *
+	 * @param bundleId The id of the redirected OSGi bundle.
+	 */
+	synchronized void removeProvider(final long bundleId) {
+		if (this.wrappers.keySet().removeIf(reference -> OsgiBundleRegistry.getBundleId(reference) == bundleId)) {
+			publish();
+		}
+	}
+
+	/**
+	 * Adds a wrapper for the given reference unless it already has one, as a
+	 * service registered while the cache is opened may be reported twice, or its
+	 * bundle was already redirected to a replacement.
+	 */
+	private void add(final ServiceReference<T> reference) {
+		if (!this.wrappers.containsKey(reference) && !this.bundleRegistry.isRedirected(reference)) {
+			this.wrappers.put(reference, this.bundleRegistry.createServiceWrapper(reference, this.type));
+		}
+	}
+
+	private void publish() {
+		this.wrapperList = Checks.requireNonNull(List.copyOf(this.wrappers.values()));
+	}
+}
@@ -0,0 +1,36 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+/**
+ * Keeps a service in use across many invocations, instead of loading and
+ * releasing it for each {@link ServiceWrapper#callService(java.util.function.Consumer)
+ * call}.
+ * <p>
+ * The lease is revoked as soon as the service is unregistered, e.g. because
+ * the bundle providing it is stopped. While the lease is open, it counts as a
+ * running call, so
+ * {@link BundleRegistry#swap(StartedBundle, RegisteredBundle, java.time.Duration)
+ * swapping} the bundle providing the service waits for it to be closed.
+ *
+ * @param <T> The type of the service.
+ */
+public interface ServiceLease<T> extends AutoCloseable {
+	/**
+	 * @return The proxy of the service, which fails with a
+	 *         {@link org.codeturnery.proxies.LockedException} once the lease was
+	 *         closed or revoked.
+	 */
+	public T getService();
+
+	/**
+	 * @return {@code true} if the lease ended because the service was
+	 *         unregistered.
+	 */
+	public boolean isRevoked();
+
+	/**
+	 * Releases the service. Has no effect if the lease was already closed or
+	 * revoked.
+	 */
+	@Override
+	public void close();
+}
@@ -0,0 +1,171 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codeturnery.proxies.LockedException;
+import org.eclipse.jdt.annotation.Checks;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The proxy class of a single service interface, generated once per interface
+ * and shared by all {@link OsgiServiceWrapper#callService(java.util.function.Consumer)
+ * calls} on services of that interface.
+ * <p>
+ * Each call {@link #bind(Object) binds} a new proxy instance to the service,
+ * which fails with a {@link LockedException} once the call returned and the
+ * {@link Binding} was {@link Binding#lock() locked}. Instead of looking up the
+ * proxy class and invoking the methods of the service via reflection on each
+ * call, the constructor of the proxy class and a {@link MethodHandle} for each
+ * method of the interface are resolved only once.
+ * <p>
+ * The invocations are still dispatched via an {@link InvocationHandler}: each
+ * one looks up the handle of the invoked {@link Method} and passes the
+ * arguments as array. Calling the handles directly would require generating
+ * the bytecode of a class per interface, e.g. to define it via
+ * {@link MethodHandles.Lookup#defineHiddenClass(byte[], boolean, MethodHandles.Lookup.ClassOption...)},
+ * for which no class file writer is available on the supported Java version.
+ * A new instance per call is needed either way, so that proxies escaping a
+ * call can be locked.
+ *
+ * @param <T> The service interface.
+ */
+final class ServiceProxyClass<T> {
+	private static final ClassValue<ServiceProxyClass<?>> PROXY_CLASSES = new ClassValue<>() {
+		@Override
+		protected ServiceProxyClass<?> computeValue(final @Nullable Class<?> type) {
+			return new ServiceProxyClass<>(Checks.requireNonNull(type));
+		}
+	};
+
+	/**
+	 * Creates a proxy instance from its {@link InvocationHandler}.
+	 */
+	private final MethodHandle constructor;
+	/**
+	 * The handles of all methods a proxy may be invoked with, each taking the
+	 * service and the arguments as array.
+	 */
+	private final Map<Method, MethodHandle> methods;
+
+	/**
+	 * @param type A public interface.
+	 * @throws IllegalArgumentException if the given {@code type} is not a public
+	 *                                  interface
+	 */
+	@SuppressWarnings("null")
+	private ServiceProxyClass(final Class<T> type) throws IllegalArgumentException {
+		final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		try {
+			final Class<?> proxyClass = Proxy
+					.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> null)
+					.getClass();
+			this.constructor = lookup
+					.findConstructor(proxyClass, MethodType.methodType(void.class, InvocationHandler.class))
+					.asType(MethodType.methodType(Object.class, InvocationHandler.class));
+
+			final var methodHandles = new HashMap<Method, MethodHandle>();
+			// the proxy passes the methods of Object instead of overriding ones of the interface
+			for (final String name : new String[] { "hashCode", "toString" }) { //$NON-NLS-1$ //$NON-NLS-2$
+				final Method method = Object.class.getMethod(name);
+				methodHandles.put(method, spread(lookup.unreflect(method), 0));
+			}
+			final Method equals = Object.class.getMethod("equals", Object.class); //$NON-NLS-1$
+			methodHandles.put(equals, spread(lookup.unreflect(equals), 1));
+			for (final Method method : type.getMethods()) {
+				if (!Modifier.isStatic(method.getModifiers())) {
+					methodHandles.put(method, spread(lookup.unreflect(method), method.getParameterCount()));
+				}
+			}
+			this.methods = methodHandles;
+		} catch (final ReflectiveOperationException exception) {
+			throw new IllegalArgumentException("No proxy can be created for " + type.getName(), exception);
+		}
+	}
+
+	/**
+	 * @param <T>  The service interface.
+	 * @param type A public interface.
+	 * @return The proxy class of the given {@code type}, generated on the first
+	 *         request.
+	 * @throws IllegalArgumentException if the given {@code type} is not a public
+	 *                                  interface
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> ServiceProxyClass<T> of(final Class<T> type) throws IllegalArgumentException {
+		return (ServiceProxyClass<T>) PROXY_CLASSES.get(type);
+	}
+
+	/**
+	 * @param service The service to send the invocations of the proxy to.
+	 * @return A new proxy instance bound to the given {@code service} until it
+	 *         is locked.
+	 */
+	Binding bind(final T service) {
+		return new Binding(service);
+	}
+
+	private static MethodHandle spread(final MethodHandle handle, final int parameterCount) {
+		return Checks.requireNonNull(handle.asType(MethodType.genericMethodType(parameterCount + 1))
+				.asSpreader(Object[].class, parameterCount));
+	}
+
+	/**
+	 * A single proxy instance and the service it is bound to.
+	 */
+	class Binding implements InvocationHandler {
+		private final T service;
+		private final T proxy;
+		private volatile boolean locked = false;
+
+		@SuppressWarnings("unchecked")
+		Binding(final T service) {
+			this.service = service;
+			try {
+				this.proxy = (T) (Object) ServiceProxyClass.this.constructor.invokeExact((InvocationHandler) this);
+			} catch (final RuntimeException | Error exception) {
+				throw exception;
+			} catch (final Throwable exception) {
+				throw new IllegalStateException(exception);
+			}
+		}
+
+		T getProxy() {
+			return this.proxy;
+		}
+
+		/**
+		 * Lets all further invocations of the proxy fail.
+		 */
+		void lock() {
+			this.locked = true;
+		}
+
+		/**
+		 * Exceptions thrown by the service are wrapped into an
+		 * {@link InvocationTargetException}, the same way as by
+		 * {@link Method#invoke(Object, Object...)}.
+		 */
+		@Override
+		public @Nullable Object invoke(final @Nullable Object proxyInstance, final @Nullable Method method,
+				final Object @Nullable [] args) throws Throwable {
+			if (this.locked) {
+				throw new LockedException();
+			}
+			final MethodHandle handle = Checks.requireNonNull(ServiceProxyClass.this.methods.get(method));
+			try {
+				return handle.invokeExact((Object) this.service, args);
+			} catch (final Throwable exception) {
+				throw new InvocationTargetException(exception);
+			}
+		}
+	}
+}
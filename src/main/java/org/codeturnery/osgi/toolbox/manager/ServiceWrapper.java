@@ -1,7 +1,44 @@
 package org.codeturnery.osgi.toolbox.manager;
 
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public interface ServiceWrapper<T> {
 	public void callService(final Consumer<T> serviceConsumer) throws LoadServiceException;
+
+	/**
+	 * Like {@link #callService(Consumer)} but returns the result of the given
+	 * {@code serviceFunction}.
+	 * 
+	 * @param <R>             The type of the result.
+	 * @param serviceFunction Receives the proxy of the service, which must not be
+	 *                        used after the function returned.
+	 * @return The value returned by the given {@code serviceFunction}.
+	 * @throws LoadServiceException if the service could not be loaded
+	 */
+	public <R> R applyService(final Function<T, R> serviceFunction) throws LoadServiceException;
+
+	/**
+	 * Like {@link #applyService(Function)} but keeps the service in use until
+	 * the returned stream is closed instead of until the function returned, so
+	 * that the stream may lazily call the service while it is consumed. The
+	 * stream must be closed, e.g. via try-with-resources.
+	 * 
+	 * @param <R>             The type of the stream elements.
+	 * @param serviceFunction Receives the proxy of the service, which must not be
+	 *                        used after the returned stream was closed.
+	 * @return The stream returned by the given {@code serviceFunction}.
+	 * @throws LoadServiceException if the service could not be loaded
+	 */
+	public <R> Stream<R> streamService(final Function<T, Stream<R>> serviceFunction) throws LoadServiceException;
+
+	/**
+	 * Loads the service once for all invocations until the returned lease is
+	 * closed, instead of loading and releasing it for each call.
+	 * 
+	 * @return The new lease, to be closed e.g. via try-with-resources.
+	 * @throws LoadServiceException if the service could not be loaded
+	 */
+	public ServiceLease<T> leaseService() throws LoadServiceException;
 }
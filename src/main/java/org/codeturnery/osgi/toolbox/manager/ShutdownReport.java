@@ -0,0 +1,84 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * The outcome of {@link OsgiBundleRegistry#shutdown(Duration)}.
+ */
+public class ShutdownReport {
+	private final BatchResult<InstalledBundle> stops;
+	private final BatchResult<RegisteredBundle> uninstallations;
+	private final List<RegisteredBundle> forcedBundles;
+	private final boolean frameworkStopped;
+	private final Duration duration;
+
+	ShutdownReport(final BatchResult<InstalledBundle> stops, final BatchResult<RegisteredBundle> uninstallations,
+			final List<RegisteredBundle> forcedBundles, final boolean frameworkStopped, final Duration duration) {
+		this.stops = stops;
+		this.uninstallations = uninstallations;
+		this.forcedBundles = Checks.requireNonNull(Collections.unmodifiableList(forcedBundles));
+		this.frameworkStopped = frameworkStopped;
+		this.duration = duration;
+	}
+
+	/**
+	 * @return The outcome of stopping each started bundle. Bundles that were
+	 *         still stopping when the deadline passed are reported as failed with
+	 *         the time waited for them as latency. The waves are numbered in the
+	 *         order they were stopped, i.e. bundles depending on others are
+	 *         stopped in earlier waves.
+	 */
+	public BatchResult<InstalledBundle> getStops() {
+		return this.stops;
+	}
+
+	/**
+	 * @return The outcome of uninstalling each installed bundle after all
+	 *         bundles were stopped.
+	 */
+	public BatchResult<RegisteredBundle> getUninstallations() {
+		return this.uninstallations;
+	}
+
+	/**
+	 * @return The bundles that did not stop or uninstall before the deadline and
+	 *         were uninstalled from the OSGi framework directly. Their instances
+	 *         in the registry are not updated.
+	 */
+	public List<RegisteredBundle> getForcedBundles() {
+		return this.forcedBundles;
+	}
+
+	/**
+	 * @return {@code false} if the OSGi framework did not finish stopping before
+	 *         the deadline or the shutdown was interrupted.
+	 */
+	public boolean isFrameworkStopped() {
+		return this.frameworkStopped;
+	}
+
+	/**
+	 * @return The time the whole shutdown took.
+	 */
+	public Duration getDuration() {
+		return this.duration;
+	}
+
+	/**
+	 * @param limit The maximum number of entries to return.
+	 * @return The stops that took the longest, the slowest first.
+	 */
+	@SuppressWarnings("null")
+	public List<BatchEntry<InstalledBundle>> getSlowestStops(final int limit) {
+		final var entries = new ArrayList<>(this.stops.getEntries());
+		entries.sort(Comparator.comparing(BatchEntry<InstalledBundle>::getLatency).reversed());
+
+		return entries.subList(0, Math.min(limit, entries.size()));
+	}
+}
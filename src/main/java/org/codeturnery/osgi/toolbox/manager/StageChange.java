@@ -0,0 +1,16 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+/**
+ * A synchronous stage change of a bundle, like {@link InstalledBundle#start()},
+ * to be run asynchronously.
+ *
+ * @param <T> The type of the new bundle instance.
+ */
+@FunctionalInterface
+interface StageChange<T> {
+	/**
+	 * @return The new instance of the bundle.
+	 * @throws StageChangeException if the stage change failed
+	 */
+	T apply() throws StageChangeException;
+}
@@ -11,4 +11,8 @@ abstract public class StageChangeException extends Exception {
 	StageChangeException(final Throwable cause) {
 		super(cause);
 	}
+
+	StageChangeException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
 }
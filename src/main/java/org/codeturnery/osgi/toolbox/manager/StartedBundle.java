@@ -1,6 +1,9 @@
 package org.codeturnery.osgi.toolbox.manager;
 
+import java.io.File;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 public interface StartedBundle extends InstalledBundle {
 	public Instant getStartTime();
@@ -13,4 +16,50 @@ public interface StartedBundle extends InstalledBundle {
 	 * @throws StopException if a problem occurred while stopping the bundle
 	 */
 	public InstalledBundle stop() throws StopException;
+
+	/**
+	 * Like {@link #stop()} but runs on the lifecycle executor of the registry
+	 * instead of the calling thread.
+	 * 
+	 * @return The future new instance, completed exceptionally with a
+	 *         {@link StopException} if a problem occurred while stopping the
+	 *         bundle.
+	 */
+	public CompletableFuture<InstalledBundle> stopAsync();
+
+	/**
+	 * Like {@link #stopAsync()} but gives up waiting after the given
+	 * {@code timeout}.
+	 * 
+	 * @param timeout The maximum duration of the stop.
+	 * @return The future new instance, completed exceptionally with a
+	 *         {@link java.util.concurrent.TimeoutException} if the stop did
+	 *         not finish in time. The stop is not aborted in this case and may
+	 *         still succeed later on.
+	 */
+	public CompletableFuture<InstalledBundle> stopAsync(final Duration timeout);
+
+	/**
+	 * Stops this bundle and all started bundles depending on it directly or
+	 * transitively, according to the wiring of the OSGi framework. Bundles are
+	 * stopped before the bundles they depend on, bundles not depending on each
+	 * other are stopped concurrently. If a bundle can not be stopped, the bundles
+	 * it depends on are not stopped either.
+	 * 
+	 * @return The outcome for this bundle first, followed by the outcomes for the
+	 *         bundles depending on it. The stopped bundles are replaced by new
+	 *         instances like with {@link #stop()}.
+	 */
+	public BatchResult<InstalledBundle> stopCascading();
+
+	/**
+	 * Like {@link InstalledBundle#update(File)}. The bundle is restarted with the
+	 * new JAR file.
+	 * 
+	 * @param jarFile The new JAR file of this bundle.
+	 * @return A new instance to be used for all further actions on this bundle.
+	 * @throws UpdateException if a problem occurred while updating the bundle
+	 */
+	@Override
+	public StartedBundle update(final File jarFile) throws UpdateException;
 }
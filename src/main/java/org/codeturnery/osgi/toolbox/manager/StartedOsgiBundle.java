@@ -1,6 +1,11 @@
 package org.codeturnery.osgi.toolbox.manager;
 
+import java.io.File;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.jdt.annotation.Checks;
 
@@ -18,29 +23,62 @@ class StartedOsgiBundle extends InstalledOsgiBundle implements StartedBundle {
 		this.startTime = Checks.requireNonNull(Instant.now());
 	}
 
+	protected StartedOsgiBundle(final StartedOsgiBundle bundle, final RegisteredOsgiBundle content) {
+		super(bundle, content);
+		this.startTime = bundle.startTime;
+	}
+
 	@Override
 	public Instant getStartTime() {
 		return this.startTime;
 	}
 
+	@Override
+	public CompletableFuture<InstalledBundle> stopAsync() {
+		return this.bundleRegistry.changeStageAsync(this::stop, Checks.requireNonNull(Optional.empty()));
+	}
+
+	@Override
+	public CompletableFuture<InstalledBundle> stopAsync(final Duration timeout) {
+		return this.bundleRegistry.changeStageAsync(this::stop, Checks.requireNonNull(Optional.of(timeout)));
+	}
+
 	@Override
 	public InstalledBundle stop() throws StopException {
+		final Lock lock = this.bundleRegistry.bundleLocks.lock(this.id);
 		try {
 			throwIfExpired();
 			if (!getStage().equals(Stage.STARTED)) {
 				throw new StopException("The bundle must be started to be stopped.");
 			}
 
+			getBundle().stop();
 			expire(Stage.INSTALLED);
 			final InstalledOsgiBundle installedOsgiBundle = new InstalledOsgiBundle(this);
 			this.bundleRegistry.replaceBundleInstances(this, installedOsgiBundle);
-			getBundle().stop();
 
 			return installedOsgiBundle;
 		} catch (final StopException exception) {
 			throw exception;
 		} catch (final Throwable exception) {
 			throw new StopException(exception);
+		} finally {
+			lock.unlock();
 		}
 	}
+
+	@Override
+	public BatchResult<InstalledBundle> stopCascading() {
+		return this.bundleRegistry.stopCascading(this);
+	}
+
+	@Override
+	public StartedBundle update(final File jarFile) throws UpdateException {
+		return (StartedOsgiBundle) updateFrom(jarFile);
+	}
+
+	@Override
+	protected StartedOsgiBundle createUpdatedInstance(final RegisteredOsgiBundle content) {
+		return new StartedOsgiBundle(this, content);
+	}
 }
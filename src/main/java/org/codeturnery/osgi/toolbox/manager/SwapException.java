@@ -0,0 +1,22 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+/**
+ * Indicates that a bundle could not be swapped with its replacement for some
+ * reason, e.g. because calls to its services did not finish in time.
+ */
+public class SwapException extends StageChangeException {
+
+	private static final long serialVersionUID = -1427503925384150286L;
+
+	SwapException(final String message) {
+		super(message);
+	}
+
+	SwapException(final Throwable cause) {
+		super(cause);
+	}
+
+	SwapException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+}
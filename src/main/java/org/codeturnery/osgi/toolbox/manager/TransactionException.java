@@ -0,0 +1,31 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Checks;
+
+/**
+ * Indicates that a {@link BundleTransaction} failed and was rolled back. The
+ * cause is the first failed change, further failed changes are added as
+ * suppressed exceptions.
+ */
+public class TransactionException extends StageChangeException {
+
+	private static final long serialVersionUID = 6194538805917613724L;
+	private final List<StageChangeException> rollbackFailures;
+
+	TransactionException(final StageChangeException cause, final List<StageChangeException> rollbackFailures) {
+		super(rollbackFailures.isEmpty() ? "The transaction was rolled back."
+				: "The transaction could not be rolled back completely.", cause);
+		this.rollbackFailures = Checks.requireNonNull(List.copyOf(rollbackFailures));
+	}
+
+	/**
+	 * @return The changes that failed while moving the bundles back to their
+	 *         previous stage. If not empty, some bundles remain in the stage the
+	 *         transaction moved them to.
+	 */
+	public List<StageChangeException> getRollbackFailures() {
+		return this.rollbackFailures;
+	}
+}
@@ -0,0 +1,18 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+/**
+ * Indicates that the throwing bundle could not be updated for some reason,
+ * e.g. because the new JAR file is already registered as another bundle.
+ */
+public class UpdateException extends StageChangeException {
+
+	private static final long serialVersionUID = 2871630592145618307L;
+
+	UpdateException(final String message) {
+		super(message);
+	}
+
+	UpdateException(final Throwable cause) {
+		super(cause);
+	}
+}
@@ -0,0 +1,226 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.osgi.framework.BundleException;
+
+@SuppressWarnings("nls")
+public class BundleScannerTest extends BundleTest {
+
+	@TempDir
+	Path tempDirectory;
+
+	@Test
+	public void testCentralDirectoryScannerMatchesJarFileScanner() throws IOException, BundleViolationException {
+		for (final File file : getBundleJarFiles()) {
+			final BundleScan expected = BundleScanner.jarFile().scan(file);
+			final BundleScan actual = BundleScanner.centralDirectory().scan(file);
+			assertFalse(expected.getClassEntries().isEmpty());
+			assertEquals(expected.getClassEntries(), actual.getClassEntries());
+			assertEquals(expected.getManifest(), actual.getManifest());
+			assertEquals(expected.getContentHash(), actual.getContentHash());
+		}
+	}
+
+	@Test
+	public void testCentralDirectoryScannerWithStoredEntries() throws IOException, BundleViolationException {
+		final File file = this.tempDirectory.resolve("stored.jar").toFile();
+		final byte[] content = "not really a class".getBytes(StandardCharsets.UTF_8);
+		try (final var jar = new JarOutputStream(new FileOutputStream(file), createManifest())) {
+			final var crc = new CRC32();
+			crc.update(content);
+			final var entry = new JarEntry("org/example/Stored.class");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(content.length);
+			entry.setCrc(crc.getValue());
+			jar.putNextEntry(entry);
+			jar.write(content);
+			jar.closeEntry();
+		}
+
+		final BundleScan expected = BundleScanner.jarFile().scan(file);
+		final BundleScan actual = BundleScanner.centralDirectory().scan(file);
+		assertEquals(Set.of("org/example/Stored.class"), actual.getClassEntries().keySet());
+		assertEquals(expected.getClassEntries(), actual.getClassEntries());
+		assertEquals(content.length, actual.getClassEntries().get("org/example/Stored.class").getSize());
+		assertEquals(expected.getManifest(), actual.getManifest());
+	}
+
+	@Test
+	public void testCentralDirectoryScannerWithoutManifest() throws IOException {
+		final File file = this.tempDirectory.resolve("plain.zip").toFile();
+		try (final var zip = new ZipOutputStream(new FileOutputStream(file))) {
+			zip.putNextEntry(new ZipEntry("org/example/Plain.class"));
+			zip.closeEntry();
+		}
+
+		assertThrows(BundleViolationException.class, () -> BundleScanner.centralDirectory().scan(file));
+		assertThrows(BundleViolationException.class, () -> BundleScanner.jarFile().scan(file));
+	}
+
+	@Test
+	public void testCentralDirectoryScannerWithInvalidFile() throws IOException {
+		final Path file = this.tempDirectory.resolve("invalid.jar");
+		Files.writeString(file, "no ZIP content");
+
+		assertThrows(IOException.class, () -> BundleScanner.centralDirectory().scan(file.toFile()));
+	}
+
+	@Test
+	public void testRegistrationWithCentralDirectoryScanner() throws BundleException, IOException {
+		this.bundleRegistry.close();
+		this.bundleRegistry = new OsgiBundleRegistry(Set.of(), BundleScanner.centralDirectory(),
+				Runnable::run);
+
+		final RegistrationResult result = this.bundleRegistry.registerBundles(getBundleJarFiles());
+		assertFalse(result.hasFailures());
+		final RegisteredBundle c1 = result.getRegisteredBundles().get(C1.getJarFile());
+		final RegisteredBundle c2 = result.getRegisteredBundles().get(C2.getJarFile());
+		assertTrue(c1.getConflicts().equals(Set.of(new BundleConflict(c2, C_CONFLICTS, true))));
+	}
+
+	@Test
+	public void testIndexedScanner() throws IOException, BundleViolationException {
+		final Path indexFile = this.tempDirectory.resolve("index").resolve("bundles.idx");
+		final var countingScanner = new CountingScanner();
+		final BundleScanner coldScanner = BundleScanner.indexed(indexFile, countingScanner);
+		for (final File file : getBundleJarFiles()) {
+			coldScanner.scan(file);
+		}
+		assertEquals(getBundleJarFiles().size(), countingScanner.count);
+		coldScanner.flush();
+		assertTrue(Files.exists(indexFile));
+
+		// a new instance (e.g. after a restart) must not scan unchanged files again
+		countingScanner.count = 0;
+		final BundleScanner warmScanner = BundleScanner.indexed(indexFile, countingScanner);
+		for (final File file : getBundleJarFiles()) {
+			final BundleScan expected = BundleScanner.jarFile().scan(file);
+			final BundleScan actual = warmScanner.scan(file);
+			assertEquals(expected.getClassEntries(), actual.getClassEntries());
+			assertEquals(expected.getManifest().getMainAttributes(), actual.getManifest().getMainAttributes());
+			assertEquals(expected.getContentHash(), actual.getContentHash());
+		}
+		assertEquals(0, countingScanner.count);
+
+		// a changed file must be scanned again, a copy is changed to keep the fixture untouched
+		final File changedFile = this.tempDirectory.resolve(A.getJarName()).toFile();
+		Files.copy(A.getJarFile().toPath(), changedFile.toPath());
+		warmScanner.scan(changedFile);
+		warmScanner.scan(changedFile);
+		assertEquals(1, countingScanner.count);
+		assertTrue(changedFile.setLastModified(changedFile.lastModified() + 1000));
+		warmScanner.scan(changedFile);
+		assertEquals(2, countingScanner.count);
+	}
+
+	@Test
+	public void testIndexedScannerWithBrokenIndex() throws IOException, BundleViolationException {
+		final Path indexFile = this.tempDirectory.resolve("broken.idx");
+		Files.writeString(indexFile, "no index content");
+		final var countingScanner = new CountingScanner();
+		final BundleScanner scanner = BundleScanner.indexed(indexFile, countingScanner);
+
+		final File file = A.getJarFile();
+		assertEquals(BundleScanner.jarFile().scan(file).getClassEntries(), scanner.scan(file).getClassEntries());
+		assertEquals(1, countingScanner.count);
+		scanner.flush();
+
+		final BundleScanner rebuiltScanner = BundleScanner.indexed(indexFile, countingScanner);
+		rebuiltScanner.scan(file);
+		assertEquals(1, countingScanner.count);
+	}
+
+	@Test
+	public void testIndexedScannerWithFailedFlush() throws IOException, BundleViolationException {
+		final Path blockingFile = this.tempDirectory.resolve("blocked");
+		Files.writeString(blockingFile, "not a directory");
+		final Path indexFile = blockingFile.resolve("bundles.idx");
+		final BundleScanner scanner = BundleScanner.indexed(indexFile, new CountingScanner());
+		scanner.scan(A.getJarFile());
+		assertThrows(IOException.class, () -> scanner.flush());
+
+		// the entries are still written by the next flush
+		Files.delete(blockingFile);
+		scanner.flush();
+		assertTrue(Files.exists(indexFile));
+	}
+
+	@Test
+	public void testClassEntryTable() throws IOException, BundleViolationException {
+		for (final File file : getBundleJarFiles()) {
+			final ClassEntryTable table = BundleScanner.jarFile().scan(file).getClassEntries();
+			final var map = new HashMap<String, ClassEntry>(table);
+			assertEquals(map, table);
+			assertEquals(map.hashCode(), table.hashCode());
+			for (final ClassEntry classEntry : map.values()) {
+				assertEquals(classEntry, table.get(classEntry.getName()));
+			}
+		}
+
+		// UTF-8 byte order differs from String order for supplementary characters
+		final var classEntries = List.of(new ClassEntry("org/example/\uD83D\uDE00.class", 1, 10),
+				new ClassEntry("org/example/\uFFFD.class", 0xFFFFFFFFL, 20), new ClassEntry("org/example/a.class", 3, 30),
+				new ClassEntry("Default.class", 4, 40));
+		final ClassEntryTable table = ClassEntryTable.of(classEntries);
+		assertEquals(classEntries.size(), table.size());
+		for (final ClassEntry classEntry : classEntries) {
+			assertTrue(table.containsKey(classEntry.getName()));
+			assertEquals(classEntry, table.get(classEntry.getName()));
+		}
+		assertFalse(table.containsKey("org/example/b.class"));
+		assertEquals(null, table.get("org/example/b.class"));
+		assertFalse(table.containsKey("/Default.class"));
+		assertFalse(table.containsKey("org/example/a"));
+		assertEquals(Set.of("org/example", ""), ClassPackage.of(table).keySet());
+
+		// the package and the .class suffix are stored separately from the names
+		assertThrows(IllegalArgumentException.class,
+				() -> ClassEntryTable.of(List.of(new ClassEntry("META-INF/MANIFEST.MF", 0, 0))));
+		assertThrows(IllegalArgumentException.class,
+				() -> ClassEntryTable.of(List.of(new ClassEntry("/Default.class", 0, 0))));
+	}
+
+	private static Manifest createManifest() {
+		final var manifest = new Manifest();
+		final Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue("Bundle-SymbolicName", "org.example.stored");
+		attributes.putValue("Bundle-Version", "1.0.0");
+		attributes.putValue("Bundle-Activator", "org.example.Stored");
+
+		return manifest;
+	}
+
+	private static class CountingScanner extends BundleScanner {
+		private int count = 0;
+
+		@Override
+		BundleScan scan(final File jarFile) throws IOException, BundleViolationException {
+			this.count++;
+			return BundleScanner.jarFile().scan(jarFile);
+		}
+	}
+}
@@ -23,6 +23,14 @@ abstract public class BundleTest {
 	public final static BundleProject B = new BundleProject("test-bundle-b-1.0.0.jar", "test-bundle-b", "org.codeturnery.test-bundle-b:1.0.0");
 	public final static BundleProject C1 = new BundleProject("test-bundle-c-1.0.0.jar", "test-bundle-c1", "org.codeturnery.test-bundle-c:1.0.0");
 	public final static BundleProject C2 = new BundleProject("test-bundle-c-2.0.0.jar", "test-bundle-c2", "org.codeturnery.test-bundle-c:2.0.0");
+	/**
+	 * D, E, F and G depend on each other: E imports a package of D, F imports
+	 * packages of E and G and G imports a package of F, forming a cycle.
+	 */
+	public final static BundleProject D = new BundleProject("test-bundle-d-1.0.0.jar", "test-bundle-d", "org.codeturnery.test-bundle-d:1.0.0");
+	public final static BundleProject E = new BundleProject("test-bundle-e-1.0.0.jar", "test-bundle-e", "org.codeturnery.test-bundle-e:1.0.0");
+	public final static BundleProject F = new BundleProject("test-bundle-f-1.0.0.jar", "test-bundle-f", "org.codeturnery.test-bundle-f:1.0.0");
+	public final static BundleProject G = new BundleProject("test-bundle-g-1.0.0.jar", "test-bundle-g", "org.codeturnery.test-bundle-g:1.0.0");
 	
 	protected static final Set<String> C_CONFLICTS = Set.of("org/codeturnery/osgi/fixtures/bundles/c/BookImpl.class");
 	
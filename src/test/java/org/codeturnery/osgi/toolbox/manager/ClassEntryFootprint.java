@@ -0,0 +1,94 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Measures the memory retained per registered bundle by its class entries,
+ * i.e. the {@link ClassEntryTable}, the {@link ClassPathHashes} and the
+ * {@link ClassPackage packages}, compared to the {@code Map<String, JarEntry>}
+ * bundles used to keep.
+ * <p>
+ * Each structure is created the given number of times and kept reachable, the
+ * retained size is the growth of the used heap after a full garbage collection
+ * divided by that number. Placed in this package instead of the experiments to
+ * access the package private classes.
+ * <p>
+ * Usage: <code>ClassEntryFootprint &lt;copies&gt; &lt;jar file&gt;...</code>
+ */
+@SuppressWarnings({ "null", "nls" })
+public class ClassEntryFootprint {
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: ClassEntryFootprint <copies> <jar file>...");
+			System.exit(1);
+		}
+		final int copies = Integer.parseInt(args[0]);
+		final List<File> jarFiles = Arrays.stream(args).skip(1).map(File::new).toList();
+
+		for (final File jarFile : jarFiles) {
+			final Collection<ClassEntry> classEntries = BundleScanner.jarFile().scan(jarFile).getClassEntries()
+					.values();
+			final long jarEntriesSize = measure(() -> readJarEntries(jarFile), copies);
+			final long compactSize = measure(() -> {
+				final ClassEntryTable table = ClassEntryTable.of(classEntries);
+				return new Object[] { table, ClassPathHashes.of(table), ClassPackage.of(table) };
+			}, copies);
+			System.out.printf("%s: %d classes, %d bytes as JarEntry map, %d bytes compact, %.2fx%n",
+					jarFile.getName(), classEntries.size(), jarEntriesSize, compactSize,
+					(double) jarEntriesSize / compactSize);
+		}
+	}
+
+	/**
+	 * The class entries as they were kept before {@link ClassEntryTable} existed.
+	 */
+	private static Map<String, JarEntry> readJarEntries(final File jarFile) {
+		try (final JarFile jar = new JarFile(jarFile, true)) {
+			final var classEntries = new HashMap<String, JarEntry>();
+			final Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				final JarEntry jarEntry = entries.nextElement();
+				if (jarEntry.getName().endsWith(".class")) {
+					classEntries.put(jarEntry.getName(), jarEntry);
+				}
+			}
+			return classEntries;
+		} catch (final Exception exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	private static long measure(final Supplier<Object> factory, final int copies) {
+		// warm up, so that lazily initialized classes are not counted
+		factory.get();
+		final var retained = new Object[copies];
+		final long before = getUsedMemory();
+		for (int i = 0; i < copies; i++) {
+			retained[i] = factory.get();
+		}
+		final long after = getUsedMemory();
+		if (retained[copies - 1] == null) {
+			throw new IllegalStateException();
+		}
+
+		return (after - before) / copies;
+	}
+
+	private static long getUsedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -2,11 +2,19 @@ package org.codeturnery.osgi.toolbox.manager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.jdt.annotation.Checks;
 import org.junit.jupiter.api.Test;
@@ -40,4 +48,152 @@ public class InstallationTest extends BundleTest {
 		assertEquals(Stage.INSTALLED, expiration.getPreviousStage());
 		assertEquals(Stage.REGISTERED, expiration.getNewStage());
 	}
+
+	@Test
+	public void testConcurrentInstallation() throws InterruptedException {
+		this.bundleRegistry.registerBundles(getBundleJarFiles());
+		final List<RegisteredBundle> bundles = List.copyOf(this.bundleRegistry.getBundles());
+		final ExecutorService executor = Executors.newFixedThreadPool(bundles.size() * 2);
+		try {
+			// each bundle is installed by two threads at once, only one of them may
+			// succeed while the other one finds the bundle expired
+			final var installations = new ArrayList<Future<InstalledBundle>>();
+			for (final RegisteredBundle bundle : bundles) {
+				installations.add(executor.submit(bundle::install));
+				installations.add(executor.submit(bundle::install));
+			}
+			int failures = 0;
+			for (final Future<InstalledBundle> installation : installations) {
+				try {
+					installation.get();
+				} catch (final ExecutionException exception) {
+					assertTrue(exception.getCause() instanceof InstallationException);
+					failures++;
+				}
+			}
+			assertEquals(bundles.size(), failures);
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(bundles.size(), this.bundleRegistry.getBundles().size());
+		for (final RegisteredBundle bundle : this.bundleRegistry.getBundles()) {
+			assertTrue(this.bundleRegistry.isInstalledButNotStarted(bundle));
+		}
+		assertEquals(this.bundleRegistry.getBundles(), this.bundleRegistry.getSnapshot().getBundles());
+	}
+
+	@Test
+	public void testAsynchronousInstallation() throws RegistrationException {
+		final RegisteredBundle bundle = this.bundleRegistry.registerBundle(A.getJarFile());
+		final InstalledBundle installedBundle = bundle.installAsync(Duration.ofSeconds(30)).join();
+		assertEquals(List.of(installedBundle), this.bundleRegistry.getBundles());
+
+		// failures complete the future instead of being thrown
+		final CompletableFuture<InstalledBundle> expiredInstallation = bundle.installAsync();
+		final var exception = assertThrows(ExecutionException.class, () -> expiredInstallation.get());
+		assertTrue(exception.getCause() instanceof InstallationException);
+	}
+
+	@Test
+	public void testBatchInstallation() {
+		this.bundleRegistry.registerBundles(getBundleJarFiles());
+		final List<RegisteredBundle> bundles = List.copyOf(this.bundleRegistry.getBundles());
+
+		final BatchResult<InstalledBundle> installation = this.bundleRegistry.installAll(bundles);
+		assertFalse(installation.hasFailures());
+		assertEquals(this.bundleRegistry.getBundles(), installation.getResults());
+		for (final InstalledBundle bundle : installation.getResults()) {
+			assertTrue(this.bundleRegistry.isInstalledButNotStarted(bundle));
+		}
+
+		// the now expired instances can not be installed again
+		final BatchResult<InstalledBundle> repeatedInstallation = this.bundleRegistry.installAll(bundles);
+		assertEquals(bundles.size(), repeatedInstallation.getFailures().size());
+
+		final BatchResult<RegisteredBundle> uninstallation = this.bundleRegistry
+				.uninstallAll(installation.getResults());
+		assertFalse(uninstallation.hasFailures());
+		assertEquals(this.bundleRegistry.getBundles(), uninstallation.getResults());
+		for (final RegisteredBundle bundle : uninstallation.getResults()) {
+			assertTrue(this.bundleRegistry.isNotInstalled(bundle));
+		}
+	}
+
+	@Test
+	public void testUpdate() throws RegistrationException, StageChangeException {
+		this.bundleRegistry.registerBundle(A.getJarFile());
+		final RegisteredBundle bundle = this.bundleRegistry.registerBundle(C1.getJarFile());
+		final long id = bundle.getId();
+		final StartedBundle startedBundle = bundle.install().start();
+
+		final StartedBundle updatedBundle = startedBundle.update(C2.getJarFile());
+		assertTrue(startedBundle.isExpired());
+		assertTrue(this.bundleRegistry.isStarted(updatedBundle));
+		assertEquals(id, updatedBundle.getId());
+		assertEquals(1, updatedBundle.getIndex());
+		assertEquals("2", updatedBundle.getVersion().getMajor());
+		assertEquals(Optional.of(updatedBundle), this.bundleRegistry.findBundle(C2.getJarFile().getAbsoluteFile().toURI()));
+		assertTrue(this.bundleRegistry.findBundle(C1.getJarFile().getAbsoluteFile().toURI()).isEmpty());
+
+		// the JAR file of another registered bundle can not be used
+		assertThrows(UpdateException.class, () -> updatedBundle.update(A.getJarFile()));
+		assertFalse(updatedBundle.isExpired());
+
+		// a reinstallation uses the new JAR file
+		final InstalledBundle reinstalledBundle = updatedBundle.stop().uninstall().install();
+		assertEquals(id, reinstalledBundle.getId());
+		assertEquals(C2.getJarFile().getAbsoluteFile().toURI(), reinstalledBundle.getUri());
+	}
+
+	@Test
+	public void testUpdateReservesContent() throws RegistrationException, StageChangeException {
+		final InstalledBundle bundle = this.bundleRegistry.registerBundle(C1.getJarFile()).install();
+		final var installedBundle = (InstalledOsgiBundle) bundle;
+		final var content = new RegisteredOsgiBundle(C2.getJarFile(), this.bundleRegistry);
+
+		// while an update is in progress its JAR file can not be registered by another bundle
+		assertTrue(this.bundleRegistry.reserveContent(installedBundle, content).isEmpty());
+		assertThrows(RegistrationException.class, () -> this.bundleRegistry.registerBundle(C2.getJarFile()));
+		assertTrue(this.bundleRegistry.registerBundles(List.of(C2.getJarFile())).hasFailures());
+		assertEquals(Optional.of(bundle), this.bundleRegistry.findBundle(C2.getJarFile().getAbsoluteFile().toURI()));
+
+		// another update to the same JAR file is rejected as well
+		final InstalledBundle otherBundle = this.bundleRegistry.registerBundle(A.getJarFile()).install();
+		assertThrows(UpdateException.class, () -> otherBundle.update(C2.getJarFile()));
+
+		this.bundleRegistry.releaseContent(installedBundle, content);
+		assertTrue(this.bundleRegistry.findBundle(C2.getJarFile().getAbsoluteFile().toURI()).isEmpty());
+		assertEquals(Optional.of(bundle), this.bundleRegistry.findBundle(C1.getJarFile().getAbsoluteFile().toURI()));
+		this.bundleRegistry.registerBundle(C2.getJarFile());
+	}
+
+	@Test
+	public void testCascadingUninstallation() throws RegistrationException, StageChangeException {
+		final StartedBundle startedBundle = this.bundleRegistry.registerBundle(A.getJarFile()).install().start();
+		final InstalledBundle installedBundle = this.bundleRegistry.registerBundle(B.getJarFile()).install();
+
+		// the bundles do not depend on each other, so only the started one is stopped
+		final BatchResult<InstalledBundle> stop = startedBundle.stopCascading();
+		assertFalse(stop.hasFailures());
+		assertEquals(1, stop.getEntries().size());
+		assertTrue(startedBundle.isExpired());
+		assertTrue(this.bundleRegistry.isInstalledButNotStarted(stop.getResults().get(0)));
+
+		final StartedBundle restartedBundle = stop.getResults().get(0).start();
+		final BatchResult<RegisteredBundle> uninstallation = restartedBundle.uninstallCascading();
+		assertFalse(uninstallation.hasFailures());
+		assertEquals(1, uninstallation.getEntries().size());
+		assertTrue(this.bundleRegistry.isNotInstalled(uninstallation.getResults().get(0)));
+		assertTrue(this.bundleRegistry.isInstalledButNotStarted(installedBundle));
+
+		final BatchResult<RegisteredBundle> unregistration = installedBundle.unregisterCascading();
+		assertFalse(unregistration.hasFailures());
+		assertTrue(unregistration.getResults().get(0).isExpired());
+		assertEquals(List.of(uninstallation.getResults().get(0)), this.bundleRegistry.getBundles());
+
+		// expired instances fail like their non-cascading counterparts
+		assertTrue(restartedBundle.uninstallCascading().getEntries().get(0).getFailure()
+				.get() instanceof UninstallationException);
+	}
 }
@@ -41,6 +41,10 @@ public class JarBuilderExtension implements BeforeAllCallback, ExtensionContext.
 			buildJar(BundleTest.B);
 			buildJar(BundleTest.C1);
 			buildJar(BundleTest.C2);
+			buildJar(BundleTest.D);
+			buildJar(BundleTest.E);
+			buildJar(BundleTest.F);
+			buildJar(BundleTest.G);
 
 			// The following line registers a callback hook when the root test context is
 			// shut down
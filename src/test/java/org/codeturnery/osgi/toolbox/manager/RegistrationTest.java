@@ -2,19 +2,31 @@ package org.codeturnery.osgi.toolbox.manager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.jdt.annotation.Checks;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class RegistrationTest extends BundleTest {
 
+	@TempDir
+	Path tempDirectory;
+
 	@Test
 	public void testRegistration() throws RegistrationException {
 		final List<File> files = getBundleJarFiles();
@@ -55,10 +67,14 @@ public class RegistrationTest extends BundleTest {
 		final RegisteredBundle c2 = bundleMap.get(C2.getIdentifier());
 
 		final RegisteredBundle bundleToBeUnregistered = c2;
+		final List<RegisteredBundle> previousBundles = this.bundleRegistry.getBundles();
 		bundleToBeUnregistered.unregister();
 		List<RegisteredBundle> bundles = this.bundleRegistry.getBundles();
 		assertFalse(bundles.contains(bundleToBeUnregistered));
 		assertEquals(3, bundles.size());
+		// previously returned lists are not updated
+		assertTrue(previousBundles.contains(bundleToBeUnregistered));
+		assertEquals(4, previousBundles.size());
 		assertTrue(bundleToBeUnregistered.isExpired());
 		final var expiration = bundleToBeUnregistered.getExpiration().get();
 		assertEquals(Stage.REGISTERED, expiration.getPreviousStage());
@@ -69,6 +85,175 @@ public class RegistrationTest extends BundleTest {
 		// after unregistering one of the two versions of the same bundle there are no
 		// conflicts left
 		assertTrue(c1.getConflicts().isEmpty());
+		for (final String conflictingClass : C_CONFLICTS) {
+			assertEquals(1, this.bundleRegistry.packageIndex.getOwners(ClassPackage.getPackageName(conflictingClass))
+					.size());
+		}
+	}
+
+	@Test
+	public void testBulkRegistration() throws RegistrationException {
+		final List<File> files = new ArrayList<>(getBundleJarFiles());
+		final File missingFile = new File("missing.jar");
+		final File duplicateFile = new File(A.getJarFile().getAbsolutePath());
+		files.add(missingFile);
+		files.add(duplicateFile);
+
+		final RegistrationResult result = this.bundleRegistry.registerBundles(files);
+		assertTrue(result.hasFailures());
+		assertEquals(Set.of(missingFile, duplicateFile), result.getFailures().keySet());
+		assertTrue(result.getFailures().get(duplicateFile).getCause() instanceof BundleAlreadyRegisteredException);
+		assertEquals(getBundleJarFiles(), new ArrayList<>(result.getRegisteredBundles().keySet()));
+		assertEquals(new ArrayList<>(result.getRegisteredBundles().values()), this.bundleRegistry.getBundles());
+
+		final Map<String, RegisteredBundle> bundleMap = getBundleMap(getBundleJarFiles().size());
+		final RegisteredBundle c1 = bundleMap.get(C1.getIdentifier());
+		final RegisteredBundle c2 = bundleMap.get(C2.getIdentifier());
+		assertTrue(bundleMap.get(A.getIdentifier()).getConflicts().isEmpty());
+		assertTrue(c1.getConflicts().equals(Set.of(new BundleConflict(c2, C_CONFLICTS, true))));
+
+		// registering the same files again must fail for each of them but not throw
+		final RegistrationResult secondResult = this.bundleRegistry.registerBundles(getBundleJarFiles());
+		assertTrue(secondResult.getRegisteredBundles().isEmpty());
+		assertEquals(getBundleJarFiles().size(), secondResult.getFailures().size());
+		assertEquals(getBundleJarFiles().size(), this.bundleRegistry.getBundles().size());
+	}
+
+	@Test
+	public void testContentDuplicateRegistration()
+			throws RegistrationException, UnregistrationException, IOException {
+		final RegisteredBundle a = this.bundleRegistry.registerBundle(A.getJarFile());
+		final String contentHash = a.getContentHash();
+		final File copy = Checks.requireNonNull(
+				Files.copy(A.getJarFile().toPath(), this.tempDirectory.resolve("copy.jar")).toFile()); //$NON-NLS-1$
+
+		final var exception = assertThrows(RegistrationException.class,
+				() -> this.bundleRegistry.registerBundle(copy));
+		final var cause = (BundleAlreadyRegisteredException) exception.getCause();
+		assertTrue(cause.isContentDuplicate());
+		assertEquals(a, cause.getRegisteredBundle());
+		assertEquals(copy, cause.getUnregisteredBundle());
+
+		final RegistrationResult result = this.bundleRegistry.registerBundles(List.of(copy));
+		assertTrue(result.getFailures().get(copy).getCause() instanceof BundleAlreadyRegisteredException);
+		assertEquals(List.of(a), this.bundleRegistry.getBundles());
+
+		// the content can be registered from the other path after the first one is
+		// gone
+		a.unregister();
+		final RegisteredBundle copiedBundle = this.bundleRegistry.registerBundle(copy);
+		assertEquals(contentHash, copiedBundle.getContentHash());
+	}
+
+	@Test
+	public void testConflictMatrix() {
+		final RegistrationResult result = this.bundleRegistry.registerBundles(getBundleJarFiles());
+		assertFalse(result.hasFailures());
+
+		final ConflictMatrix conflictMatrix = this.bundleRegistry.computeConflictMatrix();
+		assertEquals(this.bundleRegistry.getBundles(), conflictMatrix.getBundles());
+		assertEquals(1, conflictMatrix.getConflictCount());
+		for (final RegisteredBundle bundle : this.bundleRegistry.getBundles()) {
+			assertEquals(bundle.getConflicts(), conflictMatrix.getConflicts(bundle));
+		}
+
+		final Map<String, RegisteredBundle> bundleMap = getBundleMap(getBundleJarFiles().size());
+		final RegisteredBundle a = bundleMap.get(A.getIdentifier());
+		final RegisteredBundle c1 = bundleMap.get(C1.getIdentifier());
+		final RegisteredBundle c2 = bundleMap.get(C2.getIdentifier());
+		assertEquals(new BundleConflict(c2, C_CONFLICTS, true), conflictMatrix.getConflict(c1, c2).get());
+		assertEquals(new BundleConflict(c1, C_CONFLICTS, true), conflictMatrix.getConflict(c2, c1).get());
+		assertTrue(conflictMatrix.getConflict(a, c1).isEmpty());
+	}
+
+	@Test
+	public void testPairwiseConflict() {
+		this.bundleRegistry.registerBundles(getBundleJarFiles());
+		final Map<String, RegisteredBundle> bundleMap = getBundleMap(getBundleJarFiles().size());
+		final RegisteredBundle a = bundleMap.get(A.getIdentifier());
+		final RegisteredBundle b = bundleMap.get(B.getIdentifier());
+		final RegisteredBundle c1 = bundleMap.get(C1.getIdentifier());
+		final RegisteredBundle c2 = bundleMap.get(C2.getIdentifier());
+
+		assertTrue(a.getConflict(b).isEmpty());
+		assertTrue(a.getConflict(c1).isEmpty());
+		assertTrue(c1.getConflict(c1).isEmpty());
+		assertEquals(new BundleConflict(c2, C_CONFLICTS, true), c1.getConflict(c2).get());
+		assertEquals(new BundleConflict(c1, C_CONFLICTS, true), c2.getConflict(c1).get());
+		assertEquals(Map.of("org/codeturnery/osgi/fixtures/bundles/c", C_CONFLICTS), //$NON-NLS-1$
+				c1.getConflict(c2).get().getConflictingPackages());
+		for (final RegisteredBundle bundle : this.bundleRegistry.getBundles()) {
+			for (final BundleConflict conflict : bundle.getConflicts()) {
+				assertEquals(conflict, bundle.getConflict(conflict.getConflictingBundle()).get());
+			}
+		}
+	}
+
+	@Test
+	public void testLookups() throws RegistrationException, UnregistrationException, InstallationException,
+			UninstallationException {
+		this.bundleRegistry.registerBundles(getBundleJarFiles());
+		final Map<String, RegisteredBundle> bundleMap = getBundleMap(getBundleJarFiles().size());
+		final RegisteredBundle a = bundleMap.get(A.getIdentifier());
+		final RegisteredBundle c1 = bundleMap.get(C1.getIdentifier());
+		final RegisteredBundle c2 = bundleMap.get(C2.getIdentifier());
+
+		assertEquals(a, this.bundleRegistry.findBundle(a.getId()).get());
+		assertEquals(a, this.bundleRegistry.findBundle(a.getUri()).get());
+		assertEquals(List.of(c1, c2), this.bundleRegistry.findBundles(c1.getSymbolicName()));
+		assertEquals(List.of(c2), this.bundleRegistry.findBundles(c2.getSymbolicName(), c2.getVersion()));
+		assertTrue(this.bundleRegistry.findBundles("missing").isEmpty()); //$NON-NLS-1$
+
+		// the id is kept when the bundle changes its stage, while the lookups return
+		// the new instance
+		final long idOfC1 = c1.getId();
+		final InstalledBundle installedC1 = c1.install();
+		assertEquals(idOfC1, installedC1.getId());
+		assertEquals(installedC1, this.bundleRegistry.findBundle(installedC1.getId()).get());
+		assertEquals(List.of(installedC1, c2), this.bundleRegistry.findBundles(installedC1.getSymbolicName()));
+		assertEquals(2, installedC1.getIndex());
+
+		final URI uriOfA = a.getUri();
+		a.unregister();
+		assertTrue(this.bundleRegistry.findBundle(uriOfA).isEmpty());
+		assertEquals(1, installedC1.getIndex());
+		assertEquals(2, c2.getIndex());
+		installedC1.uninstall().unregister();
+		assertEquals(List.of(c2), this.bundleRegistry.findBundles(c2.getSymbolicName()));
+		assertEquals(1, c2.getIndex());
+	}
+
+	@Test
+	public void testSnapshots() throws RegistrationException, InstallationException, UnregistrationException,
+			InterruptedException, TimeoutException {
+		final RegistrySnapshot initialSnapshot = this.bundleRegistry.getSnapshot();
+		assertEquals(0, initialSnapshot.getGeneration());
+		assertTrue(initialSnapshot.getBundles().isEmpty());
+
+		this.bundleRegistry.registerBundles(getBundleJarFiles());
+		final RegistrySnapshot registeredSnapshot = this.bundleRegistry.getSnapshot();
+		assertEquals(1, registeredSnapshot.getGeneration());
+		assertEquals(this.bundleRegistry.getBundles(), registeredSnapshot.getBundles());
+		assertEquals(registeredSnapshot.getBundles(), registeredSnapshot.diff(initialSnapshot).getAdded());
+
+		final Map<String, RegisteredBundle> bundleMap = getBundleMap(getBundleJarFiles().size());
+		final RegisteredBundle a = bundleMap.get(A.getIdentifier());
+		final RegisteredBundle b = bundleMap.get(B.getIdentifier());
+		final InstalledBundle installedA = a.install();
+		b.unregister();
+		final RegistrySnapshot changedSnapshot = this.bundleRegistry.awaitGeneration(3, Duration.ofSeconds(1));
+		assertEquals(3, changedSnapshot.getGeneration());
+		// older snapshots are not affected by later changes
+		assertEquals(getBundleJarFiles().size(), registeredSnapshot.getBundles().size());
+		assertTrue(registeredSnapshot.getBundles().contains(a));
+
+		final RegistrySnapshot.Diff diff = changedSnapshot.diff(registeredSnapshot);
+		assertTrue(diff.getAdded().isEmpty());
+		assertEquals(List.of(b), diff.getRemoved());
+		assertEquals(List.of(installedA), diff.getReplaced());
+		assertTrue(changedSnapshot.diff(changedSnapshot).isEmpty());
+
+		assertThrows(TimeoutException.class, () -> this.bundleRegistry.awaitGeneration(4, Duration.ofMillis(10)));
 	}
 
 	protected Map<String, RegisteredBundle> getBundleMap(int size) {
@@ -2,6 +2,7 @@ package org.codeturnery.osgi.toolbox.manager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
@@ -10,7 +11,16 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.junit.jupiter.api.Test;
@@ -140,6 +150,230 @@ public class ServiceReleaseTest extends BundleTest {
 		assertNull(abstractMethodError.getCause());
 	}
 
+	@Test
+	public void testProxyPerCall() throws StageChangeException, LoadServiceException {
+		for (final var bundleJarFile : getBundleJarFiles()) {
+			this.bundleRegistry.registerBundle(bundleJarFile).install().start();
+		}
+
+		final var proxies = new ArrayList<BookImporter>();
+		for (final var serviceWrapper : this.bundleRegistry.loadServices(BookImporter.class)) {
+			for (int i = 0; i < 2; i++) {
+				serviceWrapper.callService(s -> {
+					assertEquals(s.hashCode(), s.hashCode());
+					proxies.add(s);
+				});
+			}
+		}
+		// all calls share the same proxy class but not the same proxy
+		assertEquals(1, proxies.stream().map(Object::getClass).distinct().count());
+		for (int i = 1; i < proxies.size(); i++) {
+			assertNotSame(proxies.get(i - 1), proxies.get(i));
+		}
+		for (final BookImporter proxy : proxies) {
+			assertThrows(LockedException.class, () -> proxy.getBooks());
+		}
+	}
+
+	@Test
+	public void testServiceCache() throws StageChangeException, LoadServiceException {
+		final StartedBundle bundleA = this.bundleRegistry.registerBundle(A.getJarFile()).install().start();
+		final var servicesA = this.bundleRegistry.loadServices(BookImporter.class);
+		assertEquals(1, servicesA.size());
+		assertSame(servicesA, this.bundleRegistry.loadServices(BookImporter.class));
+
+		// only the wrapper of the newly started service is added
+		this.bundleRegistry.registerBundle(B.getJarFile()).install().start();
+		final var servicesAB = this.bundleRegistry.loadServices(BookImporter.class);
+		assertEquals(2, servicesAB.size());
+		assertTrue(servicesAB.contains(servicesA.get(0)));
+		assertThrows(UnsupportedOperationException.class, () -> servicesAB.clear());
+
+		// only the wrapper of the stopped service is removed
+		bundleA.stop();
+		final var servicesB = this.bundleRegistry.loadServices(BookImporter.class);
+		assertEquals(1, servicesB.size());
+		assertFalse(servicesB.contains(servicesA.get(0)));
+		assertTrue(servicesAB.contains(servicesB.get(0)));
+	}
+
+	@Test
+	public void testApplyAndStreamService() throws StageChangeException, LoadServiceException, SwapException {
+		final StartedBundle bundle = this.bundleRegistry.registerBundle(C1.getJarFile()).install().start();
+		final OsgiServiceWrapper<BookImporter> service = getServiceWrapper();
+		final String title = getTitle(service);
+		assertEquals(title, service.applyService(s -> s.getBooks().iterator().next().getTitle()));
+
+		// the service is only called while the stream is consumed
+		final var proxies = new ArrayList<BookImporter>(1);
+		try (final Stream<String> titles = service.streamService(s -> {
+			proxies.add(s);
+			return Stream.of(s, s).map(proxy -> proxy.getBooks().iterator().next().getTitle());
+		})) {
+			assertEquals(List.of(title, title), titles.toList());
+			assertEquals(title, proxies.get(0).getBooks().iterator().next().getTitle());
+		}
+		assertThrows(LockedException.class, () -> proxies.get(0).getBooks());
+
+		// the call ends even if the function fails, otherwise the swap could not
+		// finish waiting for it
+		assertThrows(IllegalStateException.class, () -> service.streamService(s -> {
+			throw new IllegalStateException();
+		}));
+		this.bundleRegistry.swap(bundle, this.bundleRegistry.registerBundle(C2.getJarFile()), Duration.ofMillis(100));
+		assertNotEquals(title, getTitle(service));
+	}
+
+	@Test
+	public void testServiceLease() throws StageChangeException, LoadServiceException {
+		final StartedBundle bundle = this.bundleRegistry.registerBundle(C1.getJarFile()).install().start();
+		final OsgiServiceWrapper<BookImporter> service = getServiceWrapper();
+		final String title = getTitle(service);
+
+		final BookImporter closedProxy;
+		try (final ServiceLease<BookImporter> lease = service.leaseService()) {
+			closedProxy = lease.getService();
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(title, closedProxy.getBooks().iterator().next().getTitle());
+			}
+			assertFalse(lease.isRevoked());
+		}
+		assertThrows(LockedException.class, () -> closedProxy.getBooks());
+
+		// stopping the bundle revokes the open lease
+		final ServiceLease<BookImporter> lease = service.leaseService();
+		assertEquals(title, lease.getService().getBooks().iterator().next().getTitle());
+		bundle.stop();
+		assertTrue(lease.isRevoked());
+		assertThrows(LockedException.class, () -> lease.getService().getBooks());
+		lease.close();
+		assertTrue(this.bundleRegistry.loadServices(BookImporter.class).isEmpty());
+	}
+
+	@Test
+	public void testCallAll() throws Exception {
+		for (final var bundleJarFile : getBundleJarFiles()) {
+			this.bundleRegistry.registerBundle(bundleJarFile).install().start();
+		}
+		final var expectedTitles = new HashSet<String>();
+		for (final var service : this.bundleRegistry.loadServices(BookImporter.class)) {
+			expectedTitles.add(getTitle(service));
+		}
+
+		final List<CallResult<String>> results = this.bundleRegistry
+				.callAll(BookImporter.class, s -> s.getBooks().iterator().next().getTitle(), Duration.ofSeconds(10))
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(4, results.size());
+		final var titles = new HashSet<String>();
+		for (final CallResult<String> result : results) {
+			assertTrue(result.isSucceeded());
+			titles.add(result.getResult().get());
+		}
+		assertEquals(expectedTitles, titles);
+
+		// a single blocked call neither delays nor fails the other ones
+		final var finishCall = new CountDownLatch(1);
+		final var blocked = new AtomicBoolean();
+		try {
+			final List<CallResult<String>> streamedResults = this.bundleRegistry
+					.streamAll(BookImporter.class, s -> {
+						if (!blocked.getAndSet(true)) {
+							try {
+								finishCall.await();
+							} catch (final InterruptedException exception) {
+								throw new IllegalStateException(exception);
+							}
+						}
+						return s.getBooks().iterator().next().getTitle();
+					}, Duration.ofMillis(500)).toList();
+			assertEquals(4, streamedResults.size());
+			assertTrue(streamedResults.subList(0, 3).stream().allMatch(CallResult::isSucceeded));
+			final CallResult<String> timedOutResult = streamedResults.get(3);
+			assertFalse(timedOutResult.isSucceeded());
+			assertTrue(timedOutResult.getFailure().get() instanceof TimeoutException);
+			assertTrue(timedOutResult.getResult().isEmpty());
+		} finally {
+			finishCall.countDown();
+		}
+	}
+
+	@Test
+	public void testSwap() throws Exception {
+		final StartedBundle bundle = this.bundleRegistry.registerBundle(C1.getJarFile()).install().start();
+		final RegisteredBundle replacement = this.bundleRegistry.registerBundle(C2.getJarFile());
+		final OsgiServiceWrapper<BookImporter> service = getServiceWrapper();
+		final long providerBundleId = service.getServiceReference().getBundle().getBundleId();
+		final String title = getTitle(service);
+
+		// a call running during the swap must be able to finish on the old bundle
+		final var callStarted = new CountDownLatch(1);
+		final var finishCall = new CountDownLatch(1);
+		final var runningCall = new FutureTask<String>(() -> {
+			final var titles = new ArrayList<String>(1);
+			service.callService(s -> {
+				callStarted.countDown();
+				try {
+					finishCall.await();
+				} catch (final InterruptedException exception) {
+					throw new RuntimeException(exception);
+				}
+				titles.add(s.getBooks().iterator().next().getTitle());
+			});
+			return titles.get(0);
+		});
+		new Thread(runningCall).start();
+		callStarted.await();
+		final var swap = new FutureTask<StartedBundle>(
+				() -> this.bundleRegistry.swap(bundle, replacement, Duration.ofSeconds(30)));
+		new Thread(swap).start();
+
+		assertThrows(TimeoutException.class, () -> swap.get(200, TimeUnit.MILLISECONDS));
+		assertFalse(bundle.isExpired());
+		// while draining only the service of the replacement is loaded
+		final List<OsgiServiceWrapper<BookImporter>> drainingServices = this.bundleRegistry
+				.loadServices(BookImporter.class);
+		assertEquals(1, drainingServices.size());
+		assertFalse(drainingServices.contains(service));
+		finishCall.countDown();
+		final StartedBundle startedReplacement = swap.get(30, TimeUnit.SECONDS);
+		assertEquals(title, runningCall.get());
+		assertTrue(bundle.isExpired());
+		assertTrue(this.bundleRegistry.isStarted(startedReplacement));
+
+		// the calls of the uninstalled bundle are forgotten, the same wrapper is
+		// still redirected to the service of the replacement
+		assertFalse(this.bundleRegistry.hasProviderCalls(providerBundleId));
+		final String replacementTitle = getTitle(service);
+		assertNotEquals(title, replacementTitle);
+		assertEquals(replacementTitle, getTitle(getServiceWrapper()));
+	}
+
+	@Test
+	public void testSwapTimeout() throws Exception {
+		final StartedBundle bundle = this.bundleRegistry.registerBundle(C1.getJarFile()).install().start();
+		final RegisteredBundle replacement = this.bundleRegistry.registerBundle(C2.getJarFile());
+		final OsgiServiceWrapper<BookImporter> service = getServiceWrapper();
+		final String title = getTitle(service);
+
+		final var swapException = new ArrayList<SwapException>(1);
+		service.callService(s -> swapException.add(assertThrows(SwapException.class,
+				() -> this.bundleRegistry.swap(bundle, replacement, Duration.ofMillis(100)))));
+		assertTrue(swapException.get(0).getCause() instanceof TimeoutException);
+		// the old bundle keeps running but new calls are already redirected
+		assertTrue(this.bundleRegistry.isStarted(bundle));
+		final List<OsgiServiceWrapper<BookImporter>> services = this.bundleRegistry.loadServices(BookImporter.class);
+		assertEquals(1, services.size());
+		assertFalse(services.contains(service));
+		assertNotEquals(title, getTitle(service));
+		assertEquals(getTitle(service), getTitle(services.get(0)));
+	}
+
+	private static String getTitle(final OsgiServiceWrapper<BookImporter> service) {
+		final var titles = new ArrayList<String>(1);
+		service.callService(s -> titles.add(s.getBooks().iterator().next().getTitle()));
+		return titles.get(0);
+	}
+
 	private OsgiServiceWrapper<BookImporter> getServiceWrapper() throws LoadServiceException {
 		final var services = this.bundleRegistry.loadServices(BookImporter.class);
 		assertEquals(1, services.size());
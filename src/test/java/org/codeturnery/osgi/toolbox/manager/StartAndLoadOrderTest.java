@@ -5,17 +5,22 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.jupiter.api.Test;
 import org.codeturnery.osgi.fixtures.bundles.contract.Book;
 import org.codeturnery.osgi.fixtures.bundles.contract.BookImporter;
 import org.eclipse.jdt.annotation.Nullable;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
 
 /**
  * This class  was intended to demonstrate how the install and start order affects bundles with conflicts.
@@ -149,6 +154,116 @@ public class StartAndLoadOrderTest extends BundleTest {
 		checkBundles();
 	}
 	
+	@Test
+	public void testServicesAllInstalledAndStartedAsync() throws LoadServiceException {
+		final var installations = new ArrayList<CompletableFuture<InstalledBundle>>();
+		for (final RegisteredBundle bundle : this.bundleRegistry.registerBundles(getBundleJarFiles())
+				.getRegisteredBundles().values()) {
+			installations.add(bundle.installAsync());
+		}
+		final var starts = new ArrayList<CompletableFuture<StartedBundle>>();
+		for (final CompletableFuture<InstalledBundle> installation : installations) {
+			starts.add(installation.join().startAsync(Duration.ofSeconds(30)));
+		}
+		for (final CompletableFuture<StartedBundle> start : starts) {
+			assertTrue(this.bundleRegistry.isStarted(start.join()));
+		}
+
+		checkBundles();
+	}
+
+	@Test
+	public void testServicesAllStartedInBatch() throws StageChangeException, LoadServiceException {
+		final var installedBundles = new ArrayList<InstalledBundle>();
+		for (final RegisteredBundle bundle : this.bundleRegistry.registerBundles(getBundleJarFiles())
+				.getRegisteredBundles().values()) {
+			installedBundles.add(bundle.install());
+		}
+
+		final BatchResult<StartedBundle> result = this.bundleRegistry.startAll(installedBundles);
+		// the test bundles only depend on the system bundle, not on each other
+		assertEquals(1, result.getWaveCount());
+		assertFalse(result.hasFailures());
+		assertEquals(this.bundleRegistry.getBundles(), result.getResults());
+		for (int i = 0; i < installedBundles.size(); i++) {
+			assertEquals(installedBundles.get(i), result.getEntries().get(i).getBundle());
+		}
+		checkBundles();
+
+		// expired bundles are reported as failures without affecting the others
+		final InstalledBundle expiredBundle = result.getResults().get(0).stop();
+		expiredBundle.uninstall();
+		final BatchResult<StartedBundle> failedResult = this.bundleRegistry.startAll(List.of(expiredBundle));
+		assertTrue(failedResult.getFailures().get(0).getFailure().get() instanceof StartException);
+		assertTrue(failedResult.getResults().isEmpty());
+	}
+
+	@Test
+	public void testDependentBundlesStartedInWaves() throws StageChangeException {
+		final var installedBundles = new ArrayList<InstalledBundle>();
+		for (final BundleProject project : List.of(G, F, E, D)) {
+			installedBundles.add(this.bundleRegistry.registerBundle(project.getJarFile()).install());
+		}
+
+		final BatchResult<StartedBundle> result = this.bundleRegistry.startAll(installedBundles);
+		// D before E before the cycle of F and G, which is started in a single final wave
+		assertEquals(3, result.getWaveCount());
+		assertFalse(result.hasFailures());
+		assertEquals(4, result.getResults().size());
+		final List<BatchEntry<StartedBundle>> entries = result.getEntries();
+		assertEquals(2, entries.get(0).getWave());
+		assertEquals(2, entries.get(1).getWave());
+		assertEquals(1, entries.get(2).getWave());
+		assertEquals(0, entries.get(3).getWave());
+		for (int i = 0; i < installedBundles.size(); i++) {
+			assertEquals(installedBundles.get(i), entries.get(i).getBundle());
+		}
+	}
+
+	@Test
+	public void testShutdown() throws StageChangeException, IOException {
+		final var installedBundles = new ArrayList<RegisteredBundle>();
+		for (final RegisteredBundle bundle : this.bundleRegistry.registerBundles(getBundleJarFiles())
+				.getRegisteredBundles().values()) {
+			installedBundles.add(bundle.install());
+		}
+		((InstalledBundle) installedBundles.get(0)).start();
+		((InstalledBundle) installedBundles.get(1)).start();
+
+		final ShutdownReport report = this.bundleRegistry.shutdown(Duration.ofSeconds(30));
+		assertTrue(report.isFrameworkStopped());
+		assertTrue(report.getForcedBundles().isEmpty());
+		assertEquals(2, report.getStops().getResults().size());
+		assertEquals(4, report.getUninstallations().getResults().size());
+		assertFalse(report.getUninstallations().hasFailures());
+		assertEquals(1, report.getSlowestStops(1).size());
+		for (final RegisteredBundle bundle : this.bundleRegistry.getBundles()) {
+			assertTrue(this.bundleRegistry.isNotInstalled(bundle));
+		}
+	}
+
+	@Test
+	public void testInterruptedShutdown() throws StageChangeException, IOException, BundleException,
+			InterruptedException {
+		// the stop of the bundle is never run, so the shutdown waits for it until interrupted
+		final var heldTasks = new ArrayList<Runnable>();
+		this.bundleRegistry.close();
+		this.bundleRegistry = new OsgiBundleRegistry(Set.of(), BundleScanner.jarFile(), Runnable::run,
+				heldTasks::add);
+		final StartedBundle bundle = this.bundleRegistry.registerBundle(D.getJarFile()).install().start();
+
+		Thread.currentThread().interrupt();
+		final ShutdownReport report = this.bundleRegistry.shutdown(Duration.ofSeconds(30));
+		assertTrue(Thread.interrupted());
+		assertFalse(report.isFrameworkStopped());
+		assertEquals(List.of(bundle), report.getForcedBundles());
+		assertTrue(report.getStops().getResults().isEmpty());
+
+		// the framework is stopped nevertheless
+		this.bundleRegistry.framework.waitForStop(30000);
+		assertEquals(Bundle.RESOLVED, this.bundleRegistry.framework.getState());
+	}
+
 	private void checkBundles() {
 		final List<OsgiServiceWrapper<BookImporter>> nameProviders = this.bundleRegistry
 				.loadServices(BookImporter.class);
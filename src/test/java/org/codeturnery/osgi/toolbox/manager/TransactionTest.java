@@ -0,0 +1,50 @@
+package org.codeturnery.osgi.toolbox.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TransactionTest extends BundleTest {
+
+	@Test
+	public void testCommit() throws StageChangeException {
+		final StartedBundle c1 = this.bundleRegistry.registerBundle(C1.getJarFile()).install().start();
+
+		final List<RegisteredBundle> bundles = this.bundleRegistry.beginTransaction()
+				.change(c1, Stage.REGISTERED)
+				.register(A.getJarFile(), Stage.STARTED)
+				.register(B.getJarFile(), Stage.INSTALLED)
+				.register(C2.getJarFile(), Stage.REGISTERED)
+				.commit();
+		assertEquals(4, bundles.size());
+		assertTrue(this.bundleRegistry.isNotInstalled(bundles.get(0)));
+		assertTrue(this.bundleRegistry.isStarted(bundles.get(1)));
+		assertTrue(this.bundleRegistry.isInstalledButNotStarted(bundles.get(2)));
+		assertTrue(this.bundleRegistry.isNotInstalled(bundles.get(3)));
+		assertEquals(bundles, this.bundleRegistry.getBundles());
+	}
+
+	@Test
+	public void testRollback() throws StageChangeException {
+		final StartedBundle c1 = this.bundleRegistry.registerBundle(C1.getJarFile()).install().start();
+		final long id = c1.getId();
+		final BundleTransaction transaction = this.bundleRegistry.beginTransaction()
+				.change(c1, Stage.INSTALLED)
+				.register(A.getJarFile(), Stage.STARTED)
+				.register(new File("missing.jar"), Stage.STARTED);
+
+		final TransactionException exception = assertThrows(TransactionException.class, transaction::commit);
+		assertTrue(exception.getCause() instanceof RegistrationException);
+		assertTrue(exception.getRollbackFailures().isEmpty());
+		// the bundle stopped by the transaction is started again and A is unregistered
+		final RegisteredBundle bundle = this.bundleRegistry.findBundle(id).get();
+		assertEquals(List.of(bundle), this.bundleRegistry.getBundles());
+		assertTrue(this.bundleRegistry.isStarted(bundle));
+		assertThrows(IllegalStateException.class, transaction::commit);
+	}
+}
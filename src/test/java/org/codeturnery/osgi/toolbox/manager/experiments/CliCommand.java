@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
@@ -18,6 +19,7 @@ import org.apache.commons.cli.ParseException;
 import org.codeturnery.osgi.toolbox.manager.InstallationException;
 import org.codeturnery.osgi.toolbox.manager.OsgiBundleRegistry;
 import org.codeturnery.osgi.toolbox.manager.BundleConflict;
+import org.codeturnery.osgi.toolbox.manager.ConflictMatrix;
 import org.codeturnery.osgi.toolbox.manager.RegisteredBundle;
 import org.codeturnery.osgi.toolbox.manager.RegistrationException;
 import org.osgi.framework.BundleException;
@@ -54,8 +56,7 @@ public class CliCommand {
 				for (final File file : files) {
 					bundleRegistry.registerBundle(file);
 				}
-				final List<RegisteredBundle> bundles = bundleRegistry.getBundles();
-				printConflicts(bundles);
+				printConflicts(bundleRegistry.computeConflictMatrix());
 			}
 		} catch (ParseException e) {
 			System.out.println(e.getMessage());
@@ -65,19 +66,22 @@ public class CliCommand {
 		}
 	}
 
-	private static void printConflicts(final List<RegisteredBundle> bundles) {
+	private static void printConflicts(final ConflictMatrix conflictMatrix) {
 		System.out.println("==== CONFLICTS ====");
-		for (final RegisteredBundle currentBundle : bundles) {
+		for (final RegisteredBundle currentBundle : conflictMatrix.getBundles()) {
 			System.out.println("Bundle: " + currentBundle.getSymbolicNameWithVersion());
 			int i = 1;
-			for (final BundleConflict conflict : currentBundle.getConflicts()) {
+			for (final BundleConflict conflict : conflictMatrix.getConflicts(currentBundle)) {
 				final Set<String> classes = conflict.getConflictingClasses();
 				final String nameConflictString = conflict.isConflictingSymbolicName()
 						? " in name and"
 						: "";
 				System.out.println("#" + (i++) + " " + conflict.getConflictingBundle().getSymbolicNameWithVersion() + ": " + nameConflictString + " in " + classes.size() + " class(es):");
-				for (final String conflictingClass : classes) {
-					System.out.println(" • " + conflictingClass);
+				for (final Map.Entry<String, Set<String>> conflictingPackage : conflict.getConflictingPackages().entrySet()) {
+					System.out.println(" " + conflictingPackage.getKey() + "/");
+					for (final String conflictingClass : conflictingPackage.getValue()) {
+						System.out.println("  • " + conflictingClass);
+					}
 				}
 			}
 		}
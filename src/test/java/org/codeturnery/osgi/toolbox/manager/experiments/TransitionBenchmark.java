@@ -0,0 +1,87 @@
+package org.codeturnery.osgi.toolbox.manager.experiments;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codeturnery.osgi.toolbox.manager.InstalledBundle;
+import org.codeturnery.osgi.toolbox.manager.OsgiBundleRegistry;
+import org.codeturnery.osgi.toolbox.manager.RegisteredBundle;
+import org.codeturnery.osgi.toolbox.manager.RegistrationResult;
+
+/**
+ * Measures the throughput of concurrent stage changes with an increasing number
+ * of threads, up to the number of available processors.
+ * <p>
+ * All given bundles are registered once and split evenly between the threads.
+ * Each thread then repeatedly installs and uninstalls its own bundles, so that
+ * the threads only contend on the locks of the registry, not on the same
+ * bundles.
+ * <p>
+ * Usage: <code>TransitionBenchmark &lt;rounds&gt; &lt;jar file&gt;...</code>
+ */
+@SuppressWarnings({ "null", "nls" })
+public class TransitionBenchmark {
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: TransitionBenchmark <rounds> <jar file>...");
+			System.exit(1);
+		}
+		final int rounds = Integer.parseInt(args[0]);
+		final List<File> jarFiles = Arrays.stream(args).skip(1).map(File::new).toList();
+		final int processors = Runtime.getRuntime().availableProcessors();
+
+		try (final var bundleRegistry = new OsgiBundleRegistry(Set.of())) {
+			final RegistrationResult result = bundleRegistry.registerBundles(jarFiles);
+			result.getFailures().forEach((file, exception) -> System.out.println("Skipped " + file + ": " + exception));
+			// the ids are kept across stage changes, unlike the instances
+			final long[] bundleIds = result.getRegisteredBundles().values().stream()
+					.mapToLong(RegisteredBundle::getId).toArray();
+			System.out.println(bundleIds.length + " bundles, " + rounds + " rounds, " + processors + " processors");
+
+			for (int threads = 1; threads <= processors; threads *= 2) {
+				final long transitions = 2L * rounds * bundleIds.length;
+				final long nanos = run(bundleRegistry, bundleIds, threads, rounds);
+				System.out.printf("%3d threads: %10.0f transitions/s%n", threads, transitions * 1e9 / nanos);
+			}
+		}
+	}
+
+	private static long run(final OsgiBundleRegistry bundleRegistry, final long[] bundleIds,
+			final int threads, final int rounds) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final var start = new CountDownLatch(1);
+			final var workers = new ArrayList<Future<?>>(threads);
+			for (int thread = 0; thread < threads; thread++) {
+				final int offset = thread;
+				workers.add(executor.submit(() -> {
+					start.await();
+					for (int round = 0; round < rounds; round++) {
+						for (int i = offset; i < bundleIds.length; i += threads) {
+							final RegisteredBundle bundle = bundleRegistry.findBundle(bundleIds[i]).get();
+							final InstalledBundle installedBundle = bundle.install();
+							installedBundle.uninstall();
+						}
+					}
+					return null;
+				}));
+			}
+			final long startTime = System.nanoTime();
+			start.countDown();
+			for (final Future<?> worker : workers) {
+				worker.get();
+			}
+
+			return System.nanoTime() - startTime;
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
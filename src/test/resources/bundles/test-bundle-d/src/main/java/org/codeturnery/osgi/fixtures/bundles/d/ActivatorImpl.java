@@ -0,0 +1,17 @@
+package org.codeturnery.osgi.fixtures.bundles.d;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+public class ActivatorImpl implements BundleActivator {
+	@Override
+	public void start(final @Nullable BundleContext context) {
+		// nothing to provide, only the wiring to the imported packages is of interest
+	}
+
+	@Override
+	public void stop(final @Nullable BundleContext context) {
+		// nothing to release
+	}
+}
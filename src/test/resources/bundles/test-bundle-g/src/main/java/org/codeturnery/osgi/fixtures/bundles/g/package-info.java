@@ -0,0 +1,2 @@
+@org.eclipse.jdt.annotation.NonNullByDefault
+package org.codeturnery.osgi.fixtures.bundles.g;
\ No newline at end of file